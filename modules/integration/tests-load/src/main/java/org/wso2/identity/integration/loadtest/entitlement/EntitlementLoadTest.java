@@ -0,0 +1,377 @@
+/*
+*  Copyright (c)  WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.wso2.identity.integration.loadtest.entitlement;
+
+import org.wso2.carbon.identity.entitlement.stub.dto.EntitledResultSetDTO;
+import org.wso2.carbon.identity.entitlement.stub.dto.PolicyDTO;
+import org.wso2.identity.integration.common.clients.entitlement.EntitlementPolicyServiceClient;
+import org.wso2.identity.integration.common.clients.entitlement.EntitlementServiceClient;
+import org.wso2.identity.integration.common.utils.LatencyHistogram;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the entitlement service of a running Identity Server.
+ *
+ * The policies of a directory, by default those of the distribution, are added and published to the PDP. Then each
+ * operation of the entitlement service runs in turn for a fixed time with a number of worker threads, each with its
+ * own client. Subjects and resources are drawn from synthetic populations with a Zipf skew; the known K-Market
+ * users and products are the most popular, so part of the traffic matches the sample policies. Throughput and
+ * latency percentiles are reported per operation.
+ *
+ * The decision cache of the PDP is configured by DecisionCaching in identity.xml and can not be switched remotely.
+ * Run the test once with it enabled and once disabled, giving -DdecisionCaching=on or off to label the reports.
+ *
+ * Usage: EntitlementLoadTest [threads] [seconds per operation] [back end url]
+ * System properties: username, password, policyDir, operations, subjects, resources, skew, warmup, deploy,
+ * decisionCaching.
+ */
+public class EntitlementLoadTest {
+
+    public static final String GET_DECISION = "getDecision";
+
+    public static final String GET_BOOLEAN_DECISION = "getBooleanDecision";
+
+    public static final String GET_DECISION_BY_ATTRIBUTES = "getDecisionByAttributes";
+
+    public static final String GET_ENTITLED_ATTRIBUTES = "getEntitledAttributes";
+
+    private static final String SUBJECT_ID = "urn:oasis:names:tc:xacml:1.0:subject:subject-id";
+
+    private static final String[] KNOWN_SUBJECTS = {"bob", "alice", "peter", "admin"};
+
+    private static final String[] KNOWN_RESOURCES = {"Food", "Drink", "Fruit", "Liquor", "Medicine"};
+
+    private static final String[] ACTIONS = {"buy", "read"};
+
+    private final String backendUrl;
+
+    private final String username;
+
+    private final String password;
+
+    private final KeyDistribution subjects;
+
+    private final KeyDistribution resources;
+
+    public EntitlementLoadTest(String backendUrl, String username, String password, KeyDistribution subjects,
+                               KeyDistribution resources) {
+        this.backendUrl = backendUrl;
+        this.username = username;
+        this.password = password;
+        this.subjects = subjects;
+        this.resources = resources;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        String backendUrl = args.length > 2 ? args[2] : "https://localhost:9443/services/";
+        if (!backendUrl.endsWith("/")) {
+            backendUrl = backendUrl + "/";
+        }
+
+        String username = System.getProperty("username", "admin");
+        String password = System.getProperty("password", "admin");
+        String policyDir = System.getProperty("policyDir", "../../distribution/conf/policies");
+        String[] operations = System.getProperty("operations", GET_DECISION + "," + GET_BOOLEAN_DECISION + "," +
+                GET_DECISION_BY_ATTRIBUTES + "," + GET_ENTITLED_ATTRIBUTES).split(",");
+        int subjectCount = Integer.getInteger("subjects", 1000);
+        int resourceCount = Integer.getInteger("resources", 100);
+        double skew = Double.parseDouble(System.getProperty("skew", "1.0"));
+        int warmup = Integer.getInteger("warmup", 10);
+        boolean deploy = Boolean.parseBoolean(System.getProperty("deploy", "true"));
+        String decisionCaching = System.getProperty("decisionCaching", "as configured");
+
+        EntitlementLoadTest loadTest = new EntitlementLoadTest(backendUrl, username, password,
+                new KeyDistribution(KeyDistribution.names(KNOWN_SUBJECTS, "user", subjectCount), skew),
+                new KeyDistribution(KeyDistribution.names(KNOWN_RESOURCES, "resource", resourceCount), skew));
+
+        if (deploy) {
+            loadTest.deployPolicies(new File(policyDir));
+        }
+
+        System.out.println("Running " + threads + " threads for " + seconds + "s per operation against " +
+                backendUrl + ", " + subjectCount + " subjects, " + resourceCount + " resources, skew " + skew +
+                ", DecisionCaching " + decisionCaching);
+        System.out.println(String.format("%-24s %10s %8s %8s %8s %8s %8s %8s %8s", "operation", "ops/s",
+                "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "permits", "errors"));
+        for (String operation : operations) {
+            operation = operation.trim();
+            if (warmup > 0) {
+                loadTest.run(operation, threads, warmup * 1000L);
+            }
+            loadTest.run(operation, threads, seconds * 1000L).print();
+        }
+    }
+
+    /**
+     * Add the XML policies of the directory, or update them if they exist, and publish them to the PDP
+     * @param policyDirectory policy directory
+     */
+    public void deployPolicies(File policyDirectory) throws Exception {
+
+        File[] policyFiles = policyDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (policyFiles == null || policyFiles.length == 0) {
+            throw new IOException("No policies found in " + policyDirectory.getAbsolutePath());
+        }
+        Arrays.sort(policyFiles);
+
+        EntitlementPolicyServiceClient policyClient =
+                new EntitlementPolicyServiceClient(backendUrl, username, password);
+        for (File policyFile : policyFiles) {
+            String policy = read(policyFile);
+            PolicyDTO policyDTO = new PolicyDTO();
+            policyDTO.setPolicy(policy);
+            policyDTO.setPolicyId(getPolicyId(policy));
+            policyDTO.setActive(true);
+            policyDTO.setPromote(true);
+            try {
+                policyClient.addPolicy(policyDTO);
+                System.out.println("Policy is added : " + policyDTO.getPolicyId());
+            } catch (Exception e) {
+                policyClient.updatePolicy(policyDTO);
+                System.out.println("Policy is updated : " + policyDTO.getPolicyId());
+            }
+        }
+    }
+
+    /**
+     * Run one operation with the given number of threads for the given time
+     * @return merged result of all threads
+     */
+    public OperationResult run(final String operation, int threads, long durationMillis) throws Exception {
+
+        final OperationResult[] results = new OperationResult[threads];
+        final EntitlementServiceClient[] clients = new EntitlementServiceClient[threads];
+        for (int i = 0; i < threads; i++) {
+            results[i] = new OperationResult(operation);
+            clients[i] = new EntitlementServiceClient(backendUrl, username, password);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong end = new AtomicLong();
+        for (int i = 0; i < threads; i++) {
+            final OperationResult result = results[i];
+            final EntitlementServiceClient client = clients[i];
+            final Random random = new Random(31L * i + operation.hashCode());
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        while (System.currentTimeMillis() < end.get()) {
+                            String subject = subjects.next(random);
+                            String resource = resources.next(random);
+                            String action = ACTIONS[random.nextInt(ACTIONS.length)];
+                            long begin = System.nanoTime();
+                            try {
+                                boolean permit = invoke(client, operation, subject, resource, action, random);
+                                result.record((System.nanoTime() - begin) / 1000, permit);
+                            } catch (Exception e) {
+                                result.fail(e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "entitlement-load-" + i).start();
+        }
+
+        long begin = System.nanoTime();
+        end.set(System.currentTimeMillis() + durationMillis);
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        OperationResult total = new OperationResult(operation);
+        for (OperationResult result : results) {
+            total.add(result);
+        }
+        total.elapsedNanos = elapsed;
+        return total;
+    }
+
+    /**
+     * @return true if the decision was permit
+     */
+    private static boolean invoke(EntitlementServiceClient client, String operation, String subject, String resource,
+                                  String action, Random random) throws Exception {
+
+        if (GET_DECISION.equals(operation)) {
+            int amount = 1 + random.nextInt(20);
+            return isPermit(client.getDecision(createRequest(subject, resource, action, amount, amount * 20)));
+        } else if (GET_BOOLEAN_DECISION.equals(operation)) {
+            return client.getBooleanDecision(subject, resource, action);
+        } else if (GET_DECISION_BY_ATTRIBUTES.equals(operation)) {
+            return isPermit(client.getDecisionByAttributes(subject, resource, action, null));
+        } else if (GET_ENTITLED_ATTRIBUTES.equals(operation)) {
+            EntitledResultSetDTO resultSet = client.getEntitledAttributes(subject, resource, SUBJECT_ID, action,
+                    false);
+            return resultSet != null && resultSet.getEntitledAttributesDTOs() != null &&
+                    resultSet.getEntitledAttributesDTOs().length > 0;
+        }
+        throw new IllegalArgumentException("Unknown operation : " + operation);
+    }
+
+    private static boolean isPermit(String response) {
+        return response != null && response.contains(">Permit<");
+    }
+
+    private static String createRequest(String subject, String resource, String action, int amount,
+                                        int totalAmount) {
+
+        return "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" " +
+                "ReturnPolicyIdList=\"false\">" +
+                attributes("urn:oasis:names:tc:xacml:3.0:attribute-category:action",
+                        "urn:oasis:names:tc:xacml:1.0:action:action-id", "string", action) +
+                attributes("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject", SUBJECT_ID, "string",
+                        subject) +
+                attributes("urn:oasis:names:tc:xacml:3.0:attribute-category:resource",
+                        "urn:oasis:names:tc:xacml:1.0:resource:resource-id", "string", resource) +
+                "<Attributes Category=\"http://kmarket.com/category\">" +
+                attribute("http://kmarket.com/id/amount", "integer", String.valueOf(amount)) +
+                attribute("http://kmarket.com/id/totalAmount", "integer", String.valueOf(totalAmount)) +
+                "</Attributes></Request>";
+    }
+
+    private static String attributes(String category, String id, String type, String value) {
+        return "<Attributes Category=\"" + category + "\">" + attribute(id, type, value) + "</Attributes>";
+    }
+
+    private static String attribute(String id, String type, String value) {
+        return "<Attribute AttributeId=\"" + id + "\" IncludeInResult=\"false\"><AttributeValue " +
+                "DataType=\"http://www.w3.org/2001/XMLSchema#" + type + "\">" + value.replace("&", "&amp;")
+                .replace("<", "&lt;") + "</AttributeValue></Attribute>";
+    }
+
+    private static String getPolicyId(String policy) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(policy));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String id = reader.getAttributeValue(null, "PolicyId");
+                    return id != null ? id : reader.getAttributeValue(null, "PolicySetId");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return null;
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                content.write(buffer, 0, length);
+            }
+            return content.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Latencies and counts of one operation, recorded by one thread or merged
+     */
+    public static class OperationResult {
+
+        private final String operation;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private final List<String> errorSamples = new ArrayList<String>();
+
+        private long permits;
+
+        private long errors;
+
+        private long elapsedNanos;
+
+        public OperationResult(String operation) {
+            this.operation = operation;
+        }
+
+        void record(long micros, boolean permit) {
+            latencies.record(micros);
+            if (permit) {
+                permits++;
+            }
+        }
+
+        void fail(Exception e) {
+            errors++;
+            if (errorSamples.size() < 3) {
+                errorSamples.add(e.toString());
+            }
+        }
+
+        void add(OperationResult other) {
+            latencies.add(other.latencies);
+            permits += other.permits;
+            errors += other.errors;
+            for (String sample : other.errorSamples) {
+                if (errorSamples.size() < 3) {
+                    errorSamples.add(sample);
+                }
+            }
+        }
+
+        public void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.println(String.format("%-24s %10.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8d %8d", operation,
+                    latencies.getCount() / seconds, latencies.getMean() / 1000,
+                    latencies.getPercentile(50) / 1000.0, latencies.getPercentile(90) / 1000.0,
+                    latencies.getPercentile(99) / 1000.0, latencies.getMax() / 1000.0, permits, errors));
+            for (String sample : errorSamples) {
+                System.out.println("    " + sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+*  Copyright (c)  WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.wso2.identity.integration.loadtest.entitlement;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws one of a fixed set of names, uniformly or with a Zipf skew, where the first names are the most popular.
+ *
+ * A skew of 0 is uniform; around 1 a small set of hot subjects or resources takes most of the traffic, which is
+ * what a decision cache benefits from. Thread safe as long as each thread passes its own Random.
+ */
+public class KeyDistribution {
+
+    private final String[] names;
+
+    private final double[] cumulative;
+
+    /**
+     * @param names names to draw from, most popular first
+     * @param skew Zipf exponent, 0 for uniform
+     */
+    public KeyDistribution(String[] names, double skew) {
+        this.names = names.clone();
+        this.cumulative = new double[names.length];
+        double total = 0;
+        for (int i = 0; i < names.length; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < names.length; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /**
+     * Names made of the given ones followed by generated ones up to the count
+     * @param known names to put first
+     * @param prefix prefix of the generated names
+     * @param count number of names
+     * @return names
+     */
+    public static String[] names(String[] known, String prefix, int count) {
+        String[] names = Arrays.copyOf(known, Math.max(count, known.length));
+        for (int i = known.length; i < names.length; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    public String next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return names[Math.min(index, names.length - 1)];
+    }
+
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.batch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.common.model.User;
+import org.wso2.carbon.identity.oauth2.IdentityOAuth2Exception;
+import org.wso2.carbon.identity.oauth2.dto.OAuth2AccessTokenReqDTO;
+import org.wso2.carbon.identity.oauth2.model.RequestParameter;
+import org.wso2.carbon.identity.oauth2.token.OAuthTokenReqMessageContext;
+import org.wso2.carbon.identity.oauth2.token.handlers.grant.AbstractAuthorizationGrantHandler;
+import org.wso2.carbon.user.core.UserCoreConstants;
+import org.wso2.sample.identity.oauth2.grant.mobile.MobileNumberValidator;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Grant type issuing one token for a whole fleet of devices in one token request.
+ *
+ * The request carries a comma separated list of device subject identifiers (mobile numbers), the time the list
+ * was signed, a nonce and a signature made by the fleet gateway over these and the client id. Refer
+ * {@link BatchRequestSigner} for the signature format. The batch is accepted only if the signature is valid and
+ * every subject passes the mobile number rules used by the mobile grant.
+ *
+ * The token is issued to the fleet gateway, i.e. the client, and its scope holds the requested scopes and a
+ * <code>device:&lt;subject&gt;</code> scope per device, so resource servers check the device a call is made for
+ * against the scope of the token. The token is issued and stored by the default issue of the server, as one
+ * standard token response, and is returned again while it is valid for the same scopes.
+ */
+public class BatchDeviceGrant extends AbstractAuthorizationGrantHandler {
+
+    public static final String SUBJECTS_PARAM = "subjects";
+
+    public static final String TIMESTAMP_PARAM = "timestamp";
+
+    public static final String NONCE_PARAM = "nonce";
+
+    public static final String SIGNATURE_PARAM = "signature";
+
+    public static final String OPENID_SCOPE = "openid";
+
+    public static final String DEVICE_SCOPE_PREFIX = "device:";
+
+    public static final String MAX_BATCH_SIZE_PROPERTY = "batchGrant.maxBatchSize";
+
+    // keeps the scope of the token, which lists every device, short
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static Log log = LogFactory.getLog(BatchDeviceGrant.class);
+
+    private final MobileNumberValidator mobileNumberValidator = new MobileNumberValidator();
+
+    private final BatchRequestSigner requestSigner;
+
+    private final int maxBatchSize = Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE);
+
+    public BatchDeviceGrant() {
+        this(new BatchRequestSigner());
+    }
+
+    protected BatchDeviceGrant(BatchRequestSigner requestSigner) {
+        this.requestSigner = requestSigner;
+    }
+
+    @Override
+    public boolean validateGrant(OAuthTokenReqMessageContext tokReqMsgCtx) throws IdentityOAuth2Exception {
+
+        OAuth2AccessTokenReqDTO tokenReqDTO = tokReqMsgCtx.getOauth2AccessTokenReqDTO();
+
+        String subjects = null;
+        String timestamp = null;
+        String nonce = null;
+        String signature = null;
+
+        for (RequestParameter parameter : tokenReqDTO.getRequestParameters()) {
+            if (parameter.getValue() == null || parameter.getValue().length == 0) {
+                continue;
+            }
+            if (SUBJECTS_PARAM.equals(parameter.getKey())) {
+                subjects = parameter.getValue()[0];
+            } else if (TIMESTAMP_PARAM.equals(parameter.getKey())) {
+                timestamp = parameter.getValue()[0];
+            } else if (NONCE_PARAM.equals(parameter.getKey())) {
+                nonce = parameter.getValue()[0];
+            } else if (SIGNATURE_PARAM.equals(parameter.getKey())) {
+                signature = parameter.getValue()[0];
+            }
+        }
+
+        if (subjects == null || timestamp == null || nonce == null || signature == null) {
+            log.warn("Batch grant request of client " + tokenReqDTO.getClientId() + " is incomplete");
+            return false;
+        }
+
+        // verify the whole list once, instead of authenticating each device separately
+        if (!requestSigner.verify(tokenReqDTO.getClientId(), nonce, subjects, timestamp, signature)) {
+            log.warn("Invalid, expired or replayed batch grant signature from client " + tokenReqDTO.getClientId());
+            return false;
+        }
+
+        String[] subjectList = parseSubjects(subjects);
+        if (subjectList == null) {
+            log.warn("Invalid subject list in batch grant request of client " + tokenReqDTO.getClientId());
+            return false;
+        }
+
+        tokReqMsgCtx.setAuthorizedUser(newGateway(tokenReqDTO));
+        tokReqMsgCtx.setScope(deviceScopes(tokenReqDTO.getScope(), subjectList));
+        return true;
+    }
+
+    @Override
+    public boolean authorizeAccessDelegation(OAuthTokenReqMessageContext tokReqMsgCtx)
+            throws IdentityOAuth2Exception {
+
+        // devices are authorized by the signed batch, there is no end user delegation
+        return true;
+    }
+
+    @Override
+    public boolean validateScope(OAuthTokenReqMessageContext tokReqMsgCtx) throws IdentityOAuth2Exception {
+
+        String[] scopes = tokReqMsgCtx.getScope();
+        if (scopes != null) {
+            for (String scope : scopes) {
+                // an ID token would present the gateway as an end user
+                if (OPENID_SCOPE.equals(scope)) {
+                    log.warn("OpenID Connect scope is not supported by the batch grant");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the requested scopes followed by the scope of each device, in request order
+     */
+    private static String[] deviceScopes(String[] requestedScopes, String[] subjects) {
+
+        int requested = requestedScopes == null ? 0 : requestedScopes.length;
+        String[] scopes = new String[requested + subjects.length];
+        if (requested > 0) {
+            System.arraycopy(requestedScopes, 0, scopes, 0, requested);
+        }
+        for (int i = 0; i < subjects.length; i++) {
+            scopes[requested + i] = DEVICE_SCOPE_PREFIX + subjects[i];
+        }
+        return scopes;
+    }
+
+    /**
+     * Splits and validates the subject list. Duplicates are removed, keeping the first occurrence.
+     *
+     * @return subjects, or null if the list is empty, too large or contains an invalid subject
+     */
+    private String[] parseSubjects(String subjects) {
+
+        Set<String> subjectSet = new LinkedHashSet<>();
+        int start = 0;
+        while (start <= subjects.length()) {
+            int end = subjects.indexOf(',', start);
+            if (end < 0) {
+                end = subjects.length();
+            }
+            String subject = subjects.substring(start, end).trim();
+            if (!mobileNumberValidator.isValid(subject)) {
+                return null;
+            }
+            subjectSet.add(subject);
+            if (subjectSet.size() > maxBatchSize) {
+                return null;
+            }
+            start = end + 1;
+        }
+
+        String[] subjectList = subjectSet.toArray(new String[subjectSet.size()]);
+        return subjectList.length == 0 ? null : subjectList;
+    }
+
+    /**
+     * @return the fleet gateway, named after its client id, as the user of the token
+     */
+    private static User newGateway(OAuth2AccessTokenReqDTO tokenReqDTO) {
+
+        String tenantDomain = tokenReqDTO.getTenantDomain();
+        User user = new User();
+        user.setUserName(tokenReqDTO.getClientId());
+        user.setTenantDomain(tenantDomain == null ? "carbon.super" : tenantDomain);
+        user.setUserStoreDomain(UserCoreConstants.PRIMARY_DEFAULT_DOMAIN_NAME);
+        return user;
+    }
+}
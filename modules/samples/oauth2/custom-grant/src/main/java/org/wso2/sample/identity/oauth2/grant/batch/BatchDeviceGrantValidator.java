@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.batch;
+
+import org.apache.oltu.oauth2.common.validators.AbstractValidator;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * This validate the batch device grant request.
+ */
+public class BatchDeviceGrantValidator extends AbstractValidator<HttpServletRequest> {
+
+
+    public BatchDeviceGrantValidator() {
+
+        // signed subject list must be in the request parameters
+        requiredParams.add(BatchDeviceGrant.SUBJECTS_PARAM);
+        requiredParams.add(BatchDeviceGrant.TIMESTAMP_PARAM);
+        requiredParams.add(BatchDeviceGrant.NONCE_PARAM);
+        requiredParams.add(BatchDeviceGrant.SIGNATURE_PARAM);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.batch;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Signs and verifies the subject list of a batch grant request.
+ *
+ * The signature is the lower case hex HMAC-SHA256 of
+ * <code>timestamp + "\n" + nonce + "\n" + client_id + "\n" + subjects</code>, keyed with the secret shared with
+ * the fleet gateway. The timestamp is the signing time in milliseconds since the epoch and signatures older than
+ * the allowed age are rejected. The nonce is 16 to 64 characters of [A-Za-z0-9_-], chosen by the gateway for each
+ * request. A nonce is accepted once per client while its signature is within the allowed age, so a captured
+ * request can neither be replayed nor be sent by another client. Seen nonces are kept in memory, only after the
+ * signature is verified, so on a cluster the replay check applies per node. The secret is read from the
+ * <code>batchGrant.signingKey</code> system property.
+ */
+public class BatchRequestSigner {
+
+    public static final String SIGNING_KEY_PROPERTY = "batchGrant.signingKey";
+
+    public static final String MAX_SIGNATURE_AGE_PROPERTY = "batchGrant.maxSignatureAgeMillis";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final long DEFAULT_MAX_SIGNATURE_AGE = 300000L;
+
+    private static final long NONCE_PURGE_INTERVAL = 10000L;
+
+    private static final Pattern NONCE_PATTERN = Pattern.compile("[A-Za-z0-9_-]{16,64}");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec key;
+
+    private final long maxSignatureAge;
+
+    // client id and nonce of the accepted requests, mapped to the time their signature expires
+    private final Map<String, Long> seenNonces = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextNoncePurge = new AtomicLong();
+
+    // Mac instances are not thread safe and expensive to look up, so one is kept per thread
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Can not initialize " + ALGORITHM, e);
+            }
+        }
+    };
+
+    public BatchRequestSigner() {
+        this(System.getProperty(SIGNING_KEY_PROPERTY),
+                Long.getLong(MAX_SIGNATURE_AGE_PROPERTY, DEFAULT_MAX_SIGNATURE_AGE));
+    }
+
+    /**
+     * @param secret          shared secret, batch requests are rejected if null or empty
+     * @param maxSignatureAge maximum age of a signature in milliseconds
+     */
+    public BatchRequestSigner(String secret, long maxSignatureAge) {
+
+        this.key = secret == null || secret.isEmpty() ? null :
+                new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.maxSignatureAge = maxSignatureAge;
+    }
+
+    /**
+     * Signs the subject list.
+     *
+     * @param clientId  client sending the request
+     * @param nonce     value used once per request
+     * @param subjects  comma separated subject identifiers
+     * @param timestamp signing time in milliseconds since the epoch
+     * @return hex encoded signature
+     */
+    public String sign(String clientId, String nonce, String subjects, String timestamp) {
+
+        if (key == null) {
+            throw new IllegalStateException("Batch grant signing key is not configured");
+        }
+        byte[] signature = mac(clientId, nonce, subjects, timestamp);
+        char[] hex = new char[signature.length * 2];
+        for (int i = 0; i < signature.length; i++) {
+            hex[i * 2] = HEX[(signature[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[signature[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Verifies the signature and its age, and records the nonce.
+     *
+     * @param clientId  client sending the request
+     * @param nonce     value used once per request
+     * @param subjects  comma separated subject identifiers
+     * @param timestamp signing time in milliseconds since the epoch
+     * @param signature hex encoded signature
+     * @return true if the signature is valid and not expired, and the nonce was not used before
+     */
+    public boolean verify(String clientId, String nonce, String subjects, String timestamp, String signature) {
+
+        if (key == null || clientId == null || nonce == null || !NONCE_PATTERN.matcher(nonce).matches()) {
+            return false;
+        }
+
+        long signedAt;
+        try {
+            signedAt = Long.parseLong(timestamp);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - signedAt;
+        if (age < -maxSignatureAge || age > maxSignatureAge) {
+            return false;
+        }
+
+        byte[] expected = mac(clientId, nonce, subjects, timestamp);
+        byte[] actual = decodeHex(signature, expected.length);
+        // constant time comparison
+        if (actual == null || !MessageDigest.isEqual(expected, actual)) {
+            return false;
+        }
+        return acceptNonce(clientId, nonce, signedAt);
+    }
+
+    /**
+     * Records the nonce of a verified request.
+     *
+     * @return false if the client already used the nonce while its signature could still be accepted
+     */
+    protected boolean acceptNonce(String clientId, String nonce, long signedAt) {
+
+        long now = System.currentTimeMillis();
+        long purgeAt = nextNoncePurge.get();
+        if (now >= purgeAt && nextNoncePurge.compareAndSet(purgeAt, now + NONCE_PURGE_INTERVAL)) {
+            for (Iterator<Long> expiries = seenNonces.values().iterator(); expiries.hasNext(); ) {
+                if (expiries.next() < now) {
+                    expiries.remove();
+                }
+            }
+        }
+        // a signature is accepted until maxSignatureAge after it was made
+        long expiry = signedAt > Long.MAX_VALUE - maxSignatureAge ? Long.MAX_VALUE : signedAt + maxSignatureAge;
+        return seenNonces.putIfAbsent(clientId + '\n' + nonce, expiry) == null;
+    }
+
+    private byte[] mac(String clientId, String nonce, String subjects, String timestamp) {
+
+        Mac mac = macs.get();
+        mac.update(timestamp.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) '\n');
+        mac.update(nonce.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) '\n');
+        mac.update(clientId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) '\n');
+        return mac.doFinal(subjects.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] decodeHex(String hex, int length) {
+
+        if (hex.length() != length * 2) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
@@ -36,6 +36,8 @@ public class MobileGrant extends AbstractAuthorizationGrantHandler  {
 
     public static final String MOBILE_GRANT_PARAM = "mobileNumber";
 
+    private final MobileNumberValidator mobileNumberValidator = new MobileNumberValidator();
+
     @Override
     public boolean validateGrant(OAuthTokenReqMessageContext oAuthTokenReqMessageContext)  throws IdentityOAuth2Exception {
 
@@ -129,22 +131,15 @@ public class MobileGrant extends AbstractAuthorizationGrantHandler  {
 
 
     /**
-     * TODO
-     *
-     * You need to implement how to validate the mobile number
+     * Validates the mobile number against the allowed prefixes and ranges.
+     * Refer {@link MobileNumberValidator} on how the rules are configured.
      *
      * @param mobileNumber
      * @return
      */
     private boolean isValidMobileNumber(String mobileNumber){
 
-        // just demo validation
-
-        if(mobileNumber.startsWith("033")){
-            return true;
-        }
-
-        return false;
+        return mobileNumberValidator.isValid(mobileNumber);
     }
 
 }
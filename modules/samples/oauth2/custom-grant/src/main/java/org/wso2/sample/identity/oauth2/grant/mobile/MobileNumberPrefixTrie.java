@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.mobile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Immutable digit trie holding the allowed mobile number prefixes and ranges.
+ *
+ * Rules are read one per line. A line with a single digit string (e.g. <code>033</code>) allows every number
+ * starting with that prefix. A line with two digit strings of equal length separated by '-'
+ * (e.g. <code>0771000000-0771999999</code>) allows every number of that length inside the inclusive range.
+ * Empty lines and lines starting with '#' are ignored.
+ *
+ * Ranges are decomposed into prefixes when the trie is built, so a lookup is a single walk over the number
+ * and never allocates.
+ */
+public final class MobileNumberPrefixTrie {
+
+    private static final int RADIX = 10;
+
+    // maximum number length which can be encoded in the accepted length mask
+    private static final int MAX_NUMBER_LENGTH = 62;
+
+    // mask bit used when a node accepts numbers of any length
+    private static final long ANY_LENGTH = 1L << 63;
+
+    private static final int NO_CHILD = -1;
+
+    // children[node * RADIX + digit] is the child node index or NO_CHILD
+    private final int[] children;
+
+    // acceptMask[node] has bit n set if numbers of total length n ending under this node are accepted
+    private final long[] acceptMask;
+
+    private final int ruleCount;
+
+    private MobileNumberPrefixTrie(int[] children, long[] acceptMask, int ruleCount) {
+        this.children = children;
+        this.acceptMask = acceptMask;
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * Checks whether the given number is allowed by any of the rules.
+     *
+     * @param number mobile number, digits only
+     * @return true if the number is allowed
+     */
+    public boolean matches(CharSequence number) {
+
+        if (number == null) {
+            return false;
+        }
+
+        int length = number.length();
+        if (length == 0 || length > MAX_NUMBER_LENGTH) {
+            return false;
+        }
+
+        long lengthBit = ANY_LENGTH | (1L << length);
+        boolean matched = false;
+        int node = 0;
+
+        for (int i = 0; i < length; i++) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit >= RADIX) {
+                return false;
+            }
+            if (node != NO_CHILD) {
+                if ((acceptMask[node] & lengthBit) != 0) {
+                    matched = true;
+                }
+                node = children[node * RADIX + digit];
+            }
+        }
+
+        if (node != NO_CHILD && (acceptMask[node] & lengthBit) != 0) {
+            matched = true;
+        }
+        return matched;
+    }
+
+    /**
+     * @return number of rule lines the trie was built from
+     */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return number of nodes in the trie
+     */
+    public int getNodeCount() {
+        return acceptMask.length;
+    }
+
+    /**
+     * Builds a trie from the given rule source.
+     *
+     * @param reader rule source
+     * @return built trie
+     * @throws IOException if the rules can not be read or are malformed
+     */
+    public static MobileNumberPrefixTrie parse(Reader reader) throws IOException {
+
+        Builder builder = new Builder();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int separator = line.indexOf('-');
+            if (separator < 0) {
+                checkDigits(line, lineNumber);
+                builder.addPrefix(line);
+            } else {
+                String low = line.substring(0, separator).trim();
+                String high = line.substring(separator + 1).trim();
+                checkDigits(low, lineNumber);
+                checkDigits(high, lineNumber);
+                if (low.length() != high.length() || low.compareTo(high) > 0) {
+                    throw new IOException("Invalid mobile number range at line " + lineNumber + " : " + line);
+                }
+                builder.addRange(low, high);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void checkDigits(String value, int lineNumber) throws IOException {
+
+        if (value.isEmpty() || value.length() > MAX_NUMBER_LENGTH) {
+            throw new IOException("Invalid mobile number rule length at line " + lineNumber + " : " + value);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Invalid mobile number rule at line " + lineNumber + " : " + value);
+            }
+        }
+    }
+
+    /**
+     * Mutable builder used only while loading the rules.
+     */
+    private static final class Builder {
+
+        private int[] children = new int[64 * RADIX];
+        private long[] acceptMask = new long[64];
+        private int nodeCount = 1;
+        private int ruleCount = 0;
+
+        private Builder() {
+            Arrays.fill(children, NO_CHILD);
+        }
+
+        private void addPrefix(String prefix) {
+            acceptMask[walk(prefix, prefix.length())] |= ANY_LENGTH;
+            ruleCount++;
+        }
+
+        private void addRange(String low, String high) {
+            addRange(low, high, 0, 0);
+            ruleCount++;
+        }
+
+        /**
+         * Splits the inclusive range [low, high] of equal length digit strings into trie paths. The first
+         * <code>depth</code> digits of low and high are equal and already consumed by <code>node</code>.
+         */
+        private void addRange(String low, String high, int depth, int node) {
+
+            int length = low.length();
+            if (depth == length) {
+                acceptMask[node] |= 1L << length;
+                return;
+            }
+            if (isAll(low, depth, '0') && isAll(high, depth, '9')) {
+                // the remaining digits span the full range, accept any number of the exact length
+                acceptMask[node] |= 1L << length;
+                return;
+            }
+
+            int lowDigit = low.charAt(depth) - '0';
+            int highDigit = high.charAt(depth) - '0';
+
+            if (lowDigit == highDigit) {
+                addRange(low, high, depth + 1, child(node, lowDigit));
+                return;
+            }
+
+            addRange(low, replaceTail(low, depth + 1, '9'), depth + 1, child(node, lowDigit));
+            for (int digit = lowDigit + 1; digit < highDigit; digit++) {
+                // digits strictly between the bounds leave the remaining digits unrestricted
+                acceptMask[child(node, digit)] |= 1L << length;
+            }
+            addRange(replaceTail(high, depth + 1, '0'), high, depth + 1, child(node, highDigit));
+        }
+
+        private int walk(String digits, int length) {
+            int node = 0;
+            for (int i = 0; i < length; i++) {
+                node = child(node, digits.charAt(i) - '0');
+            }
+            return node;
+        }
+
+        private int child(int node, int digit) {
+            int index = node * RADIX + digit;
+            int next = children[index];
+            if (next == NO_CHILD) {
+                next = newNode();
+                children[index] = next;
+            }
+            return next;
+        }
+
+        private int newNode() {
+            if (nodeCount == acceptMask.length) {
+                int capacity = acceptMask.length * 2;
+                acceptMask = Arrays.copyOf(acceptMask, capacity);
+                int oldLength = children.length;
+                children = Arrays.copyOf(children, capacity * RADIX);
+                Arrays.fill(children, oldLength, children.length, NO_CHILD);
+            }
+            return nodeCount++;
+        }
+
+        private MobileNumberPrefixTrie build() {
+            return new MobileNumberPrefixTrie(Arrays.copyOf(children, nodeCount * RADIX),
+                    Arrays.copyOf(acceptMask, nodeCount), ruleCount);
+        }
+
+        private static boolean isAll(String value, int from, char c) {
+            for (int i = from; i < value.length(); i++) {
+                if (value.charAt(i) != c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String replaceTail(String value, int from, char c) {
+            char[] chars = value.toCharArray();
+            Arrays.fill(chars, from, chars.length, c);
+            return new String(chars);
+        }
+    }
+}
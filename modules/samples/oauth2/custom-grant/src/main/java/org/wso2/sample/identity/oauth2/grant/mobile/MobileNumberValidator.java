@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.mobile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.utils.CarbonUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Validates mobile numbers against the prefix and range rules of {@link MobileNumberPrefixTrie}.
+ *
+ * Rules are read from the file given by the <code>mobileGrant.rulesFile</code> system property, or from
+ * <code>&lt;IS_HOME&gt;/repository/conf/mobile-grant-rules.txt</code>. If neither exists the rules bundled with
+ * this grant are used. The rule file is checked for modifications at most once per reload interval and a changed
+ * file is swapped in atomically, so in-flight validations always see one complete rule set.
+ */
+public class MobileNumberValidator {
+
+    public static final String RULES_FILE_PROPERTY = "mobileGrant.rulesFile";
+
+    public static final String RELOAD_INTERVAL_PROPERTY = "mobileGrant.rulesReloadIntervalMillis";
+
+    private static final String RULES_FILE_NAME = "mobile-grant-rules.txt";
+
+    private static final long DEFAULT_RELOAD_INTERVAL = 30000L;
+
+    private static Log log = LogFactory.getLog(MobileNumberValidator.class);
+
+    private final File rulesFile;
+
+    private final long reloadInterval;
+
+    private final AtomicReference<LoadedRules> rules = new AtomicReference<>();
+
+    private volatile long nextReloadCheck;
+
+    public MobileNumberValidator() {
+        this(resolveRulesFile(), Long.getLong(RELOAD_INTERVAL_PROPERTY, DEFAULT_RELOAD_INTERVAL));
+    }
+
+    public MobileNumberValidator(File rulesFile, long reloadInterval) {
+
+        this.rulesFile = rulesFile;
+        this.reloadInterval = reloadInterval;
+        this.rules.set(loadInitialRules());
+        this.nextReloadCheck = System.currentTimeMillis() + reloadInterval;
+    }
+
+    /**
+     * Checks whether the mobile number is allowed by the currently loaded rules.
+     *
+     * @param mobileNumber mobile number
+     * @return true if the number is allowed
+     */
+    public boolean isValid(String mobileNumber) {
+
+        if (reloadInterval > 0 && System.currentTimeMillis() >= nextReloadCheck) {
+            reloadIfModified();
+        }
+        return rules.get().trie.matches(mobileNumber);
+    }
+
+    /**
+     * Reloads the rule file if it has been modified since it was last loaded. If the modified file can not be
+     * parsed, the previously loaded rules are kept.
+     */
+    public void reloadIfModified() {
+
+        nextReloadCheck = System.currentTimeMillis() + reloadInterval;
+
+        LoadedRules current = rules.get();
+        if (rulesFile == null || !rulesFile.isFile() || rulesFile.lastModified() == current.lastModified) {
+            return;
+        }
+
+        long lastModified = rulesFile.lastModified();
+        try {
+            LoadedRules loaded = new LoadedRules(loadFile(rulesFile), lastModified);
+            if (rules.compareAndSet(current, loaded)) {
+                log.info("Reloaded " + loaded.trie.getRuleCount() + " mobile number rules from " +
+                        rulesFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            log.error("Error while reloading mobile number rules from " + rulesFile.getAbsolutePath() +
+                    ". Previously loaded rules are still used", e);
+        }
+    }
+
+    private LoadedRules loadInitialRules() {
+
+        if (rulesFile != null && rulesFile.isFile()) {
+            long lastModified = rulesFile.lastModified();
+            try {
+                LoadedRules loaded = new LoadedRules(loadFile(rulesFile), lastModified);
+                log.info("Loaded " + loaded.trie.getRuleCount() + " mobile number rules from " +
+                        rulesFile.getAbsolutePath());
+                return loaded;
+            } catch (IOException e) {
+                log.error("Error while loading mobile number rules from " + rulesFile.getAbsolutePath() +
+                        ". Default rules are used", e);
+            }
+        }
+
+        try (InputStream inputStream = MobileNumberValidator.class.getResourceAsStream("/" + RULES_FILE_NAME)) {
+            if (inputStream != null) {
+                return new LoadedRules(MobileNumberPrefixTrie.parse(
+                        new InputStreamReader(inputStream, StandardCharsets.UTF_8)), -1L);
+            }
+        } catch (IOException e) {
+            log.error("Error while loading default mobile number rules", e);
+        }
+        return new LoadedRules(emptyTrie(), -1L);
+    }
+
+    private static MobileNumberPrefixTrie loadFile(File file) throws IOException {
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return MobileNumberPrefixTrie.parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static MobileNumberPrefixTrie emptyTrie() {
+        try {
+            return MobileNumberPrefixTrie.parse(new StringReader(""));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File resolveRulesFile() {
+
+        String path = System.getProperty(RULES_FILE_PROPERTY);
+        if (path != null && !path.trim().isEmpty()) {
+            return new File(path.trim());
+        }
+        try {
+            return new File(CarbonUtils.getCarbonConfigDirPath(), RULES_FILE_NAME);
+        } catch (Exception e) {
+            // not running inside a carbon server
+            return null;
+        }
+    }
+
+    /**
+     * Trie together with the modification time of the file it was loaded from.
+     */
+    private static final class LoadedRules {
+
+        private final MobileNumberPrefixTrie trie;
+        private final long lastModified;
+
+        private LoadedRules(MobileNumberPrefixTrie trie, long lastModified) {
+            this.trie = trie;
+            this.lastModified = lastModified;
+        }
+    }
+}
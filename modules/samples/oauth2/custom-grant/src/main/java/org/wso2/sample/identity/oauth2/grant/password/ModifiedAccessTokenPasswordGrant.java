@@ -26,9 +26,10 @@ import org.wso2.carbon.identity.oauth2.dto.OAuth2AccessTokenRespDTO;
 import org.wso2.carbon.identity.oauth2.token.OAuthTokenReqMessageContext;
 import org.wso2.carbon.identity.oauth2.token.handlers.grant.PasswordGrantHandler;
 import org.wso2.carbon.user.api.UserStoreException;
+import org.wso2.carbon.user.api.UserStoreManager;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
-
-import java.util.UUID;
+import org.wso2.sample.identity.oauth2.grant.token.AccessTokenValueGenerator;
+import org.wso2.sample.identity.oauth2.grant.token.AccessTokenValueGeneratorFactory;
 
 /**
  * Modified version of password grant type to modify the access token.
@@ -37,19 +38,56 @@ public class ModifiedAccessTokenPasswordGrant extends PasswordGrantHandler {
 
     private static Log log = LogFactory.getLog(ModifiedAccessTokenPasswordGrant.class);
 
+    private final AccessTokenValueGenerator tokenValueGenerator = AccessTokenValueGeneratorFactory.getGenerator();
+
     @Override
     public OAuth2AccessTokenRespDTO issue(OAuthTokenReqMessageContext tokReqMsgCtx) throws IdentityOAuth2Exception {
 
-        // calling super
-        OAuth2AccessTokenRespDTO tokenRespDTO =  super.issue(tokReqMsgCtx);
+        // issue and persist the token as the default password grant does
+        OAuth2AccessTokenRespDTO tokenRespDTO = issueDefaultToken(tokReqMsgCtx);
 
         // set modified access token
-        tokenRespDTO.setAccessToken(generateAccessToken(tokReqMsgCtx.getAuthorizedUser().toString()));
+        modifyAccessToken(tokReqMsgCtx, tokenRespDTO);
 
         return tokenRespDTO;
 
     }
 
+    /**
+     * Issues the token of the default password grant, which is stored in the token database
+     *
+     * @param tokReqMsgCtx
+     * @return
+     * @throws IdentityOAuth2Exception
+     */
+    protected OAuth2AccessTokenRespDTO issueDefaultToken(OAuthTokenReqMessageContext tokReqMsgCtx)
+            throws IdentityOAuth2Exception {
+
+        return super.issue(tokReqMsgCtx);
+    }
+
+    /**
+     * Replaces the access token of the issued response with the custom access token
+     *
+     * @param tokReqMsgCtx
+     * @param tokenRespDTO
+     */
+    protected void modifyAccessToken(OAuthTokenReqMessageContext tokReqMsgCtx, OAuth2AccessTokenRespDTO tokenRespDTO) {
+
+        tokenRespDTO.setAccessToken(generateAccessToken(tokReqMsgCtx.getAuthorizedUser().toString()));
+    }
+
+    /**
+     * Retrieve the user store manager of the current tenant
+     *
+     * @return
+     * @throws UserStoreException
+     */
+    protected UserStoreManager getUserStoreManager() throws UserStoreException {
+
+        return CarbonContext.getThreadLocalCarbonContext().getUserRealm().getUserStoreManager();
+    }
+
 
     /**
      * Demo sample for generating custom access token
@@ -59,23 +97,17 @@ public class ModifiedAccessTokenPasswordGrant extends PasswordGrantHandler {
      */
     private String generateAccessToken(String userName){
 
-        String token = UUID.randomUUID().toString();
-
         // retrieve user's email address and append it to access token
         userName = MultitenantUtils.getTenantAwareUsername(userName);
         String email = null;
 
         try {
-            email = CarbonContext.getThreadLocalCarbonContext().getUserRealm().getUserStoreManager()
-                    .getUserClaimValue(userName, "http://wso2.org/claims/emailaddress", null);
+            email = getUserStoreManager().getUserClaimValue(userName, "http://wso2.org/claims/emailaddress", null);
         } catch (UserStoreException e) {
             log.error(e);
         }
 
-        if(email != null){
-            token = token + ":" + email;
-        }
-
-        return token;
+        // email is embedded in the token when available
+        return tokenValueGenerator.generateAccessToken(email);
     }
 }
@@ -25,6 +25,7 @@ import org.wso2.carbon.identity.oauth2.IdentityOAuth2Exception;
 import org.wso2.carbon.identity.oauth2.token.OAuthTokenReqMessageContext;
 import org.wso2.carbon.identity.oauth2.token.handlers.grant.PasswordGrantHandler;
 import org.wso2.carbon.user.api.UserStoreException;
+import org.wso2.carbon.user.api.UserStoreManager;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import java.util.ArrayList;
@@ -41,7 +42,7 @@ public class RoleBasedPasswordGrant extends PasswordGrantHandler {
     public boolean validateGrant(OAuthTokenReqMessageContext tokReqMsgCtx) throws IdentityOAuth2Exception {
 
         //  default password validation
-        boolean authorized =  super.authorizeAccessDelegation(tokReqMsgCtx);
+        boolean authorized =  validateCredentials(tokReqMsgCtx);
 
         // additional check for role based
         if(authorized) {
@@ -49,7 +50,7 @@ public class RoleBasedPasswordGrant extends PasswordGrantHandler {
             String username = tokReqMsgCtx.getOauth2AccessTokenReqDTO().getResourceOwnerUsername();
 
             try {
-                String[] roles = CarbonContext.getThreadLocalCarbonContext().getUserRealm().getUserStoreManager().getRoleListOfUser
+                String[] roles = getUserStoreManager().getRoleListOfUser
                         (MultitenantUtils.getTenantAwareUsername(username));
 
                 for(String role : getAuthorizedRoles()){
@@ -67,6 +68,29 @@ public class RoleBasedPasswordGrant extends PasswordGrantHandler {
     }
 
 
+    /**
+     * Default password validation
+     *
+     * @param tokReqMsgCtx
+     * @return
+     * @throws IdentityOAuth2Exception
+     */
+    protected boolean validateCredentials(OAuthTokenReqMessageContext tokReqMsgCtx) throws IdentityOAuth2Exception {
+
+        return super.authorizeAccessDelegation(tokReqMsgCtx);
+    }
+
+    /**
+     * Retrieve the user store manager of the current tenant
+     *
+     * @return
+     * @throws UserStoreException
+     */
+    protected UserStoreManager getUserStoreManager() throws UserStoreException {
+
+        return CarbonContext.getThreadLocalCarbonContext().getUserRealm().getUserStoreManager();
+    }
+
     /**
      * Retrieve authorized roles.  This can be read from configuration file.
      *
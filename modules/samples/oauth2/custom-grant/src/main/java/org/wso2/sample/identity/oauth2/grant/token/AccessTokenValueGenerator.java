@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.token;
+
+/**
+ * Generates access token values for the custom grant samples.
+ * Implementations must be thread safe, as a single instance is shared by all token requests.
+ */
+public interface AccessTokenValueGenerator {
+
+    /**
+     * Generates a new access token value.
+     *
+     * @param metadata optional value to embed in the token, e.g. the user's email address. May be null
+     * @return access token value
+     */
+    String generateAccessToken(String metadata);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.token;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Creates the {@link AccessTokenValueGenerator} used by the custom grants.
+ *
+ * The implementation class can be set with the <code>customGrant.tokenValueGenerator</code> system property.
+ * {@link SecureRandomAccessTokenValueGenerator} is used by default.
+ */
+public class AccessTokenValueGeneratorFactory {
+
+    public static final String GENERATOR_CLASS_PROPERTY = "customGrant.tokenValueGenerator";
+
+    private static Log log = LogFactory.getLog(AccessTokenValueGeneratorFactory.class);
+
+    private AccessTokenValueGeneratorFactory() {
+    }
+
+    /**
+     * @return configured token value generator
+     */
+    public static AccessTokenValueGenerator getGenerator() {
+
+        String className = System.getProperty(GENERATOR_CLASS_PROPERTY);
+        if (className != null && !className.trim().isEmpty()) {
+            try {
+                Class<?> generatorClass = Class.forName(className.trim(), true,
+                        AccessTokenValueGeneratorFactory.class.getClassLoader());
+                return (AccessTokenValueGenerator) generatorClass.newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                    ClassCastException e) {
+                log.error("Error while creating access token value generator : " + className +
+                        ". Default generator is used", e);
+            }
+        }
+        return new SecureRandomAccessTokenValueGenerator();
+    }
+}
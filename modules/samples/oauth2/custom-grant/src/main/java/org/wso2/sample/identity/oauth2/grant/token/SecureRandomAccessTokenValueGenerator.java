@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.token;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Token generator which keeps one CSPRNG and one set of encode buffers per thread, so concurrent token
+ * requests never wait on a shared SecureRandom lock.
+ *
+ * The random bytes are encoded with the URL safe Base64 alphabet without padding (RFC 4648 section 5) into a
+ * reused char buffer. The only allocation per token is the returned String. If metadata is given it is
+ * appended after a ':' separator, as done by the original sample.
+ */
+public class SecureRandomAccessTokenValueGenerator implements AccessTokenValueGenerator {
+
+    public static final int DEFAULT_TOKEN_BYTES = 32;
+
+    public static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+
+    private static final char[] URL_SAFE_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final char METADATA_SEPARATOR = ':';
+
+    private final int tokenBytes;
+
+    private final int encodedLength;
+
+    private final String algorithm;
+
+    private final ThreadLocal<TokenBuffer> buffers = new ThreadLocal<TokenBuffer>() {
+        @Override
+        protected TokenBuffer initialValue() {
+            return new TokenBuffer(newSecureRandom(), tokenBytes, encodedLength);
+        }
+    };
+
+    public SecureRandomAccessTokenValueGenerator() {
+        this(DEFAULT_TOKEN_BYTES, DEFAULT_ALGORITHM);
+    }
+
+    /**
+     * @param tokenBytes number of random bytes in each token
+     * @param algorithm  SecureRandom algorithm of the per thread instances. The platform default is used if
+     *                   null or not available. Note that the NativePRNG default shares a global lock on some JDKs
+     */
+    public SecureRandomAccessTokenValueGenerator(int tokenBytes, String algorithm) {
+
+        if (tokenBytes <= 0) {
+            throw new IllegalArgumentException("Token length must be positive : " + tokenBytes);
+        }
+        this.tokenBytes = tokenBytes;
+        this.encodedLength = (tokenBytes * 4 + 2) / 3;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String generateAccessToken(String metadata) {
+
+        TokenBuffer buffer = buffers.get();
+        buffer.random.nextBytes(buffer.bytes);
+
+        int length = encode(buffer.bytes, buffer.chars);
+        if (metadata != null) {
+            int required = length + 1 + metadata.length();
+            if (buffer.chars.length < required) {
+                char[] chars = new char[required];
+                System.arraycopy(buffer.chars, 0, chars, 0, length);
+                buffer.chars = chars;
+            }
+            buffer.chars[length++] = METADATA_SEPARATOR;
+            metadata.getChars(0, metadata.length(), buffer.chars, length);
+            length += metadata.length();
+        }
+        return new String(buffer.chars, 0, length);
+    }
+
+    /**
+     * Encodes the bytes with the URL safe Base64 alphabet without padding.
+     *
+     * @return number of chars written
+     */
+    private static int encode(byte[] bytes, char[] out) {
+
+        int position = 0;
+        int i = 0;
+        int fullGroups = bytes.length - bytes.length % 3;
+
+        for (; i < fullGroups; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 18) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 12) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 6) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[bits & 0x3f];
+        }
+
+        int remaining = bytes.length - i;
+        if (remaining == 1) {
+            int bits = (bytes[i] & 0xff) << 16;
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 18) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 12) & 0x3f];
+        } else if (remaining == 2) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 18) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 12) & 0x3f];
+            out[position++] = URL_SAFE_ALPHABET[(bits >>> 6) & 0x3f];
+        }
+        return position;
+    }
+
+    private SecureRandom newSecureRandom() {
+
+        if (algorithm != null) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ignored) {
+                // fall back to the platform default
+            }
+        }
+        return new SecureRandom();
+    }
+
+    /**
+     * Per thread random source and buffers.
+     */
+    private static final class TokenBuffer {
+
+        private final SecureRandom random;
+        private final byte[] bytes;
+        private char[] chars;
+
+        private TokenBuffer(SecureRandom random, int tokenBytes, int encodedLength) {
+            this.random = random;
+            this.bytes = new byte[tokenBytes];
+            this.chars = new char[encodedLength];
+        }
+    }
+}
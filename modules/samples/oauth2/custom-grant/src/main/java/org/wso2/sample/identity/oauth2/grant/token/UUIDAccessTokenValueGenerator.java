@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.token;
+
+import java.util.UUID;
+
+/**
+ * Token generator based on {@link UUID#randomUUID()}. All threads share the single SecureRandom behind
+ * UUID, so this contends under load. It is kept for compatibility with tokens issued by earlier versions.
+ */
+public class UUIDAccessTokenValueGenerator implements AccessTokenValueGenerator {
+
+    @Override
+    public String generateAccessToken(String metadata) {
+
+        String token = UUID.randomUUID().toString();
+        if (metadata != null) {
+            token = token + ":" + metadata;
+        }
+        return token;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.harness;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs an operation from a number of threads for a fixed time and collects throughput, allocation and lock
+ * contention figures of the worker threads.
+ *
+ * Allocation figures need a JVM providing com.sun.management.ThreadMXBean and are reported as -1 otherwise.
+ * Contention figures are the blocked (monitor enter) and waited counts and times of the worker threads.
+ */
+public class BenchmarkRunner {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    static {
+        if (THREAD_MX_BEAN.isThreadContentionMonitoringSupported()) {
+            THREAD_MX_BEAN.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    private final int threads;
+
+    private final long warmUpMillis;
+
+    private final long durationMillis;
+
+    public BenchmarkRunner(int threads, long warmUpMillis, long durationMillis) {
+        this.threads = threads;
+        this.warmUpMillis = warmUpMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Operation executed by the benchmark threads.
+     */
+    public interface Operation {
+
+        /**
+         * @param thread    index of the executing thread
+         * @param iteration iteration number within the executing thread
+         * @return any value derived from the result, consumed so the call is not optimized away
+         * @throws Exception if the operation fails, which stops the executing thread
+         */
+        int execute(int thread, long iteration) throws Exception;
+    }
+
+    /**
+     * Warms up and measures the operation.
+     *
+     * @param name      name of the measured operation
+     * @param operation operation
+     * @return measured result
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public Result run(String name, Operation operation) throws InterruptedException {
+        return run(name, 1, operation);
+    }
+
+    /**
+     * Warms up and measures an operation which processes several units of work per call, e.g. a batch
+     * request issuing many tokens. Throughput and allocation are then reported per unit.
+     *
+     * @param name              name of the measured operation
+     * @param unitsPerOperation units of work done by each call
+     * @param operation         operation
+     * @return measured result
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public Result run(String name, int unitsPerOperation, Operation operation) throws InterruptedException {
+
+        if (warmUpMillis > 0) {
+            measure(name, unitsPerOperation, operation, warmUpMillis);
+        }
+        return measure(name, unitsPerOperation, operation, durationMillis);
+    }
+
+    private Result measure(String name, int unitsPerOperation, final Operation operation, long millis)
+            throws InterruptedException {
+
+        final Result result = new Result(name, threads, unitsPerOperation);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long durationNanos = millis * 1000000L;
+        Thread[] workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long threadId = Thread.currentThread().getId();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    ThreadInfo before = THREAD_MX_BEAN.getThreadInfo(threadId);
+                    long allocatedBefore = allocatedBytes(threadId);
+                    long begin = System.nanoTime();
+                    long end = begin + durationNanos;
+                    long iteration = 0;
+                    int sink = 0;
+                    Throwable error = null;
+
+                    try {
+                        while (System.nanoTime() < end) {
+                            sink += operation.execute(thread, iteration);
+                            iteration++;
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+
+                    long elapsed = System.nanoTime() - begin;
+                    long allocatedAfter = allocatedBytes(threadId);
+                    ThreadInfo after = THREAD_MX_BEAN.getThreadInfo(threadId);
+                    result.add(iteration, elapsed, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore,
+                            after.getBlockedCount() - before.getBlockedCount(),
+                            after.getBlockedTime() - before.getBlockedTime(),
+                            after.getWaitedCount() - before.getWaitedCount(), sink, error);
+                }
+            }, "benchmark-" + name + "-" + i);
+            workers[i].start();
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return result;
+    }
+
+    private static long allocatedBytes(long threadId) {
+
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (mxBean.isThreadAllocatedMemorySupported() && mxBean.isThreadAllocatedMemoryEnabled()) {
+                return mxBean.getThreadAllocatedBytes(threadId);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Aggregated figures of all worker threads.
+     */
+    public static final class Result {
+
+        private final String name;
+        private final int threads;
+        private final int unitsPerOperation;
+        private long operations;
+        private long elapsedNanos;
+        private long allocatedBytes;
+        private long blockedCount;
+        private long blockedMillis;
+        private long waitedCount;
+        private long sink;
+        private Throwable error;
+
+        private Result(String name, int threads, int unitsPerOperation) {
+            this.name = name;
+            this.threads = threads;
+            this.unitsPerOperation = unitsPerOperation;
+        }
+
+        private synchronized void add(long operations, long elapsedNanos, long allocatedBytes, long blockedCount,
+                                      long blockedMillis, long waitedCount, int sink, Throwable error) {
+            this.operations += operations;
+            this.elapsedNanos = Math.max(this.elapsedNanos, elapsedNanos);
+            this.allocatedBytes = (allocatedBytes < 0 || this.allocatedBytes < 0) ? -1 :
+                    this.allocatedBytes + allocatedBytes;
+            this.blockedCount += blockedCount;
+            this.blockedMillis += blockedMillis;
+            this.waitedCount += waitedCount;
+            this.sink += sink;
+            if (this.error == null) {
+                this.error = error;
+            }
+        }
+
+        public synchronized String getName() {
+            return name;
+        }
+
+        /**
+         * @return completed units of work, i.e. calls times units per call
+         */
+        public synchronized long getOperations() {
+            return operations * unitsPerOperation;
+        }
+
+        public synchronized double getOperationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getOperations() * 1e9 / elapsedNanos;
+        }
+
+        public synchronized double getAllocatedBytesPerOperation() {
+            return allocatedBytes < 0 || operations == 0 ? -1 : (double) allocatedBytes / getOperations();
+        }
+
+        public synchronized long getBlockedCount() {
+            return blockedCount;
+        }
+
+        public synchronized long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        public synchronized long getWaitedCount() {
+            return waitedCount;
+        }
+
+        public synchronized Throwable getError() {
+            return error;
+        }
+
+        public static String header() {
+            return String.format("%-80s %7s %14s %12s %10s %10s %10s", "operation", "threads", "ops/sec",
+                    "bytes/op", "blocked", "blockedMs", "waited");
+        }
+
+        @Override
+        public synchronized String toString() {
+            String row = String.format("%-80s %7d %14.0f %12.1f %10d %10d %10d", name, threads,
+                    getOperationsPerSecond(), getAllocatedBytesPerOperation(), blockedCount, blockedMillis,
+                    waitedCount);
+            if (error != null) {
+                row = row + "  FAILED : " + error;
+            }
+            return row;
+        }
+    }
+}
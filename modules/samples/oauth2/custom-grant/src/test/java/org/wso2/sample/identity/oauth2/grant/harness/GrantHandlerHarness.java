@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.harness;
+
+import org.wso2.carbon.identity.application.common.model.User;
+import org.wso2.carbon.identity.oauth2.IdentityOAuth2Exception;
+import org.wso2.carbon.identity.oauth2.dto.OAuth2AccessTokenReqDTO;
+import org.wso2.carbon.identity.oauth2.dto.OAuth2AccessTokenRespDTO;
+import org.wso2.carbon.identity.oauth2.model.RequestParameter;
+import org.wso2.carbon.identity.oauth2.token.OAuthTokenReqMessageContext;
+import org.wso2.carbon.identity.oauth2.token.handlers.grant.AuthorizationGrantHandler;
+import org.wso2.carbon.user.api.UserStoreManager;
+import org.wso2.sample.identity.oauth2.grant.batch.BatchDeviceGrant;
+import org.wso2.sample.identity.oauth2.grant.batch.BatchRequestSigner;
+import org.wso2.sample.identity.oauth2.grant.mobile.MobileGrant;
+import org.wso2.sample.identity.oauth2.grant.password.ModifiedAccessTokenPasswordGrant;
+import org.wso2.sample.identity.oauth2.grant.password.RoleBasedPasswordGrant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline harness measuring the custom grant handlers without a running Identity Server.
+ *
+ * Synthetic token request contexts are built up front and the user realm is replaced by an
+ * {@link InMemoryUserStore}. Each handler operation is driven from the given number of threads and reported
+ * with its throughput, allocated bytes per operation and lock contention. Besides the single operations, the
+ * checks of every handler call validateGrant, validateScope and authorizeAccessDelegation in the order of the
+ * token endpoint.
+ *
+ * Only the code of the handlers is measured. Methods the handlers inherit from the server need its database and
+ * are not measured:
+ * - issue of MobileGrant, RoleBasedPasswordGrant and BatchDeviceGrant is the default token issue of the server;
+ * - validateGrant of ModifiedAccessTokenPasswordGrant is the default password grant.
+ * Where a measured method of a handler calls into the server, the call is replaced through a seam of the handler,
+ * as noted in the operation name:
+ * - the default password authentication RoleBasedPasswordGrant calls through validateCredentials checks the in
+ *   memory user store;
+ * - the default token ModifiedAccessTokenPasswordGrant modifies, issued through issueDefaultToken, is an
+ *   unpersisted token.
+ *
+ * Usage : GrantHandlerHarness [threads] [seconds per operation] [warm up seconds]
+ */
+public class GrantHandlerHarness {
+
+    private static final int REQUESTS_PER_THREAD = 1024;
+
+    private static final String TENANT_DOMAIN = "carbon.super";
+
+    private static final String AUTHORIZED_ROLE = "TestRole";
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+
+    private static final String BATCH_SIGNING_KEY = "harnessFleetSecret";
+
+    private static final int SUBJECTS_PER_BATCH = 32;
+
+    private static final String HARNESS_CLIENT_ID = "harnessClient";
+
+    private static final long TOKEN_VALIDITY_MILLIS = 3600000L;
+
+    private final InMemoryUserStore userStore = new InMemoryUserStore();
+
+    private final int threads;
+
+    private final long runMillis;
+
+    private final BenchmarkRunner runner;
+
+    public GrantHandlerHarness(int threads, long warmUpMillis, long durationMillis) {
+        this.threads = threads;
+        this.runMillis = warmUpMillis + durationMillis;
+        this.runner = new BenchmarkRunner(threads, warmUpMillis, durationMillis);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        long warmUpSeconds = args.length > 2 ? Long.parseLong(args[2]) : 2;
+
+        setUpOfflineCarbonHome();
+
+        GrantHandlerHarness harness = new GrantHandlerHarness(threads, warmUpSeconds * 1000, seconds * 1000);
+        List<BenchmarkRunner.Result> results = harness.runAll();
+
+        System.out.println();
+        System.out.println(BenchmarkRunner.Result.header());
+        for (BenchmarkRunner.Result result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Runs all handler operations.
+     *
+     * @return results in execution order
+     */
+    public List<BenchmarkRunner.Result> runAll() throws Exception {
+
+        populateUsers();
+        List<BenchmarkRunner.Result> results = new ArrayList<>();
+
+        MobileGrant mobileGrant = new MobileGrant();
+        OAuthTokenReqMessageContext[][] mobileRequests = buildMobileRequests();
+        results.add(measureValidateGrant("MobileGrant", mobileGrant, mobileRequests));
+        results.add(measureValidateScope("MobileGrant", mobileGrant, mobileRequests));
+        results.add(measureAuthorizeAccessDelegation("MobileGrant", mobileGrant, mobileRequests));
+        results.add(measureChecks("MobileGrant checks", mobileGrant, mobileRequests));
+
+        HarnessRoleBasedPasswordGrant roleBasedGrant = new HarnessRoleBasedPasswordGrant(userStore);
+        initHandler("RoleBasedPasswordGrant", roleBasedGrant);
+        OAuthTokenReqMessageContext[][] passwordRequests = buildPasswordRequests();
+        results.add(measureValidateGrant("RoleBasedPasswordGrant (stub password check)", roleBasedGrant,
+                passwordRequests));
+        results.add(measureValidateScope("RoleBasedPasswordGrant", roleBasedGrant, passwordRequests));
+        results.add(measureAuthorizeAccessDelegation("RoleBasedPasswordGrant", roleBasedGrant, passwordRequests));
+        results.add(measureChecks("RoleBasedPasswordGrant checks (stub password check)", roleBasedGrant,
+                passwordRequests));
+
+        HarnessModifiedAccessTokenPasswordGrant modifiedTokenGrant =
+                new HarnessModifiedAccessTokenPasswordGrant(userStore);
+        initHandler("ModifiedAccessTokenPasswordGrant", modifiedTokenGrant);
+        results.add(measureValidateScope("ModifiedAccessTokenPasswordGrant", modifiedTokenGrant,
+                passwordRequests));
+        results.add(measureAuthorizeAccessDelegation("ModifiedAccessTokenPasswordGrant", modifiedTokenGrant,
+                passwordRequests));
+        results.add(measureIssue("ModifiedAccessTokenPasswordGrant (stub default token)", modifiedTokenGrant,
+                passwordRequests));
+
+        BatchDeviceGrant batchGrant = new HarnessBatchDeviceGrant(new HarnessBatchRequestSigner(runMillis + 60000L));
+        OAuthTokenReqMessageContext[][] batchRequests = buildBatchRequests();
+        // reported per device, as each request carries a batch of subjects
+        results.add(runner.run("BatchDeviceGrant.validateGrant (per device)", SUBJECTS_PER_BATCH,
+                validateGrantOperation(batchGrant, batchRequests)));
+        results.add(runner.run("BatchDeviceGrant checks (per device)", SUBJECTS_PER_BATCH,
+                checksOperation(batchGrant, batchRequests)));
+
+        return Collections.unmodifiableList(results);
+    }
+
+    private BenchmarkRunner.Result measureValidateGrant(String handlerName, final AuthorizationGrantHandler handler,
+                                                        final OAuthTokenReqMessageContext[][] requests)
+            throws InterruptedException {
+
+        return runner.run(handlerName + ".validateGrant", validateGrantOperation(handler, requests));
+    }
+
+    private static BenchmarkRunner.Operation validateGrantOperation(final AuthorizationGrantHandler handler,
+                                                                    final OAuthTokenReqMessageContext[][] requests) {
+        return new BenchmarkRunner.Operation() {
+            @Override
+            public int execute(int thread, long iteration) throws Exception {
+                return handler.validateGrant(next(requests, thread, iteration)) ? 1 : 0;
+            }
+        };
+    }
+
+    private BenchmarkRunner.Result measureValidateScope(String handlerName, final AuthorizationGrantHandler handler,
+                                                        final OAuthTokenReqMessageContext[][] requests)
+            throws InterruptedException {
+
+        return runner.run(handlerName + ".validateScope", new BenchmarkRunner.Operation() {
+            @Override
+            public int execute(int thread, long iteration) throws Exception {
+                return handler.validateScope(next(requests, thread, iteration)) ? 1 : 0;
+            }
+        });
+    }
+
+    private BenchmarkRunner.Result measureAuthorizeAccessDelegation(String handlerName,
+                                                                    final AuthorizationGrantHandler handler,
+                                                                    final OAuthTokenReqMessageContext[][] requests)
+            throws InterruptedException {
+
+        return runner.run(handlerName + ".authorizeAccessDelegation", new BenchmarkRunner.Operation() {
+            @Override
+            public int execute(int thread, long iteration) throws Exception {
+                return handler.authorizeAccessDelegation(next(requests, thread, iteration)) ? 1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Measures issue alone. The authorized user of each request is set when the requests are built.
+     */
+    private BenchmarkRunner.Result measureIssue(String handlerName, final AuthorizationGrantHandler handler,
+                                                final OAuthTokenReqMessageContext[][] requests)
+            throws InterruptedException {
+
+        return runner.run(handlerName + ".issue", new BenchmarkRunner.Operation() {
+            @Override
+            public int execute(int thread, long iteration) throws Exception {
+                return handler.issue(next(requests, thread, iteration)).getAccessToken().length();
+            }
+        });
+    }
+
+    private BenchmarkRunner.Result measureChecks(String operationName, AuthorizationGrantHandler handler,
+                                                 OAuthTokenReqMessageContext[][] requests)
+            throws InterruptedException {
+
+        return runner.run(operationName, checksOperation(handler, requests));
+    }
+
+    /**
+     * Calls the checks of the handler as the token endpoint does, stopping at the first check which fails.
+     */
+    private static BenchmarkRunner.Operation checksOperation(final AuthorizationGrantHandler handler,
+                                                             final OAuthTokenReqMessageContext[][] requests) {
+        return new BenchmarkRunner.Operation() {
+            @Override
+            public int execute(int thread, long iteration) throws Exception {
+                OAuthTokenReqMessageContext context = next(requests, thread, iteration);
+                return handler.validateGrant(context) && handler.validateScope(context) &&
+                        handler.authorizeAccessDelegation(context) ? 1 : 0;
+            }
+        };
+    }
+
+    private static OAuthTokenReqMessageContext next(OAuthTokenReqMessageContext[][] requests, int thread,
+                                                    long iteration) {
+        OAuthTokenReqMessageContext[] threadRequests = requests[thread];
+        return threadRequests[(int) (iteration % threadRequests.length)];
+    }
+
+    private void populateUsers() {
+
+        for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+            String[] roles = i % 4 == 0 ? new String[]{"Internal/everyone"} :
+                    new String[]{"Internal/everyone", "role" + (i % 16), AUTHORIZED_ROLE};
+            userStore.addUser(userName(i), "password" + i, roles,
+                    Collections.singletonMap(EMAIL_CLAIM, userName(i) + "@wso2.com"));
+        }
+    }
+
+    /**
+     * Builds one set of requests per thread, so the message contexts mutated by the handlers are never shared
+     * between threads.
+     */
+    private OAuthTokenReqMessageContext[][] buildMobileRequests() {
+
+        OAuthTokenReqMessageContext[][] requests = new OAuthTokenReqMessageContext[threads][REQUESTS_PER_THREAD];
+        for (int thread = 0; thread < threads; thread++) {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                // three out of four numbers match the default 033 prefix
+                String mobileNumber = (i % 4 == 0 ? "071" : "033") + String.format("%07d", i);
+                OAuth2AccessTokenReqDTO tokenReqDTO = newTokenRequest("mobile");
+                tokenReqDTO.setRequestParameters(new RequestParameter[]{
+                        new RequestParameter("grant_type", "mobile"),
+                        new RequestParameter(MobileGrant.MOBILE_GRANT_PARAM, mobileNumber)});
+                requests[thread][i] = new OAuthTokenReqMessageContext(tokenReqDTO);
+            }
+        }
+        return requests;
+    }
+
+    private OAuthTokenReqMessageContext[][] buildBatchRequests() {
+
+        BatchRequestSigner signer = new BatchRequestSigner(BATCH_SIGNING_KEY, Long.MAX_VALUE);
+        String timestamp = String.valueOf(System.currentTimeMillis());
+        OAuthTokenReqMessageContext[][] requests = new OAuthTokenReqMessageContext[threads][REQUESTS_PER_THREAD];
+
+        for (int thread = 0; thread < threads; thread++) {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                StringBuilder subjects = new StringBuilder();
+                for (int subject = 0; subject < SUBJECTS_PER_BATCH; subject++) {
+                    if (subject > 0) {
+                        subjects.append(',');
+                    }
+                    subjects.append("033").append(String.format("%07d", i * SUBJECTS_PER_BATCH + subject));
+                }
+                String nonce = String.format("harness%04d%06d", thread, i);
+                OAuth2AccessTokenReqDTO tokenReqDTO = newTokenRequest("batch");
+                tokenReqDTO.setRequestParameters(new RequestParameter[]{
+                        new RequestParameter(BatchDeviceGrant.SUBJECTS_PARAM, subjects.toString()),
+                        new RequestParameter(BatchDeviceGrant.TIMESTAMP_PARAM, timestamp),
+                        new RequestParameter(BatchDeviceGrant.NONCE_PARAM, nonce),
+                        new RequestParameter(BatchDeviceGrant.SIGNATURE_PARAM,
+                                signer.sign(HARNESS_CLIENT_ID, nonce, subjects.toString(), timestamp))});
+                requests[thread][i] = new OAuthTokenReqMessageContext(tokenReqDTO);
+            }
+        }
+        return requests;
+    }
+
+    private OAuthTokenReqMessageContext[][] buildPasswordRequests() {
+
+        OAuthTokenReqMessageContext[][] requests = new OAuthTokenReqMessageContext[threads][REQUESTS_PER_THREAD];
+        for (int thread = 0; thread < threads; thread++) {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                OAuth2AccessTokenReqDTO tokenReqDTO = newTokenRequest("password");
+                tokenReqDTO.setResourceOwnerUsername(userName(i));
+                tokenReqDTO.setResourceOwnerPassword("password" + i);
+                OAuthTokenReqMessageContext context = new OAuthTokenReqMessageContext(tokenReqDTO);
+                User user = new User();
+                user.setUserName(userName(i));
+                user.setTenantDomain(TENANT_DOMAIN);
+                context.setAuthorizedUser(user);
+                context.setScope(tokenReqDTO.getScope());
+                requests[thread][i] = context;
+            }
+        }
+        return requests;
+    }
+
+    private static OAuth2AccessTokenReqDTO newTokenRequest(String grantType) {
+
+        OAuth2AccessTokenReqDTO tokenReqDTO = new OAuth2AccessTokenReqDTO();
+        tokenReqDTO.setClientId(HARNESS_CLIENT_ID);
+        tokenReqDTO.setClientSecret("harnessSecret");
+        tokenReqDTO.setGrantType(grantType);
+        tokenReqDTO.setScope(new String[]{"default"});
+        tokenReqDTO.setTenantDomain(TENANT_DOMAIN);
+        tokenReqDTO.setRequestParameters(new RequestParameter[0]);
+        return tokenReqDTO;
+    }
+
+    private static String userName(int index) {
+        return "user" + index;
+    }
+
+    private static void initHandler(String handlerName, AuthorizationGrantHandler handler) {
+
+        try {
+            handler.init();
+        } catch (IdentityOAuth2Exception | RuntimeException e) {
+            // operations depending on the callback manager are reported as failed
+            System.err.println("Could not initialize " + handlerName + " offline : " + e);
+        }
+    }
+
+    /**
+     * Points carbon.home to a temporary directory with an empty identity.xml, so that the OAuth server
+     * configuration read by the handlers falls back to its defaults.
+     */
+    private static void setUpOfflineCarbonHome() throws IOException {
+
+        if (System.getProperty("carbon.home") != null) {
+            return;
+        }
+
+        File carbonHome = new File(System.getProperty("java.io.tmpdir"), "custom-grant-harness");
+        File confDir = new File(carbonHome, "repository" + File.separator + "conf");
+        File identityConfDir = new File(confDir, "identity");
+        if (!identityConfDir.isDirectory() && !identityConfDir.mkdirs()) {
+            throw new IOException("Can not create " + identityConfDir.getAbsolutePath());
+        }
+
+        String identityXml = "<Server xmlns=\"http://wso2.org/projects/carbon/carbon.xml\">\n" +
+                "    <OAuth>\n" +
+                "    </OAuth>\n" +
+                "</Server>\n";
+        writeFile(new File(identityConfDir, "identity.xml"), identityXml);
+        writeFile(new File(confDir, "identity.xml"), identityXml);
+
+        System.setProperty("carbon.home", carbonHome.getAbsolutePath());
+        System.setProperty("carbon.config.dir.path", confDir.getAbsolutePath());
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Stands in for the default token issue of the server, which stores the token in the database. Builds the
+     * response the default issue returns for a new token, without storing it.
+     */
+    private static OAuth2AccessTokenRespDTO issueUnpersisted(OAuthTokenReqMessageContext tokReqMsgCtx) {
+
+        OAuth2AccessTokenRespDTO tokenRespDTO = new OAuth2AccessTokenRespDTO();
+        tokenRespDTO.setAccessToken(UUID.randomUUID().toString());
+        tokenRespDTO.setRefreshToken(UUID.randomUUID().toString());
+        tokenRespDTO.setTokenId(UUID.randomUUID().toString());
+        tokenRespDTO.setExpiresInMillis(TOKEN_VALIDITY_MILLIS);
+        tokenRespDTO.setExpiresIn(TOKEN_VALIDITY_MILLIS / 1000);
+        tokenRespDTO.setAuthorizedScopes(scopeString(tokReqMsgCtx.getScope()));
+        return tokenRespDTO;
+    }
+
+    private static String scopeString(String[] scopes) {
+
+        StringBuilder scopeString = new StringBuilder();
+        if (scopes != null) {
+            for (String scope : scopes) {
+                if (scopeString.length() > 0) {
+                    scopeString.append(' ');
+                }
+                scopeString.append(scope);
+            }
+        }
+        return scopeString.toString();
+    }
+
+    /**
+     * Role based grant using the in memory user store.
+     */
+    private static class HarnessRoleBasedPasswordGrant extends RoleBasedPasswordGrant {
+
+        private final InMemoryUserStore userStore;
+
+        private HarnessRoleBasedPasswordGrant(InMemoryUserStore userStore) {
+            this.userStore = userStore;
+        }
+
+        @Override
+        protected boolean validateCredentials(OAuthTokenReqMessageContext tokReqMsgCtx) {
+            // password check of the default password grant against the in memory user store
+            OAuth2AccessTokenReqDTO tokenReqDTO = tokReqMsgCtx.getOauth2AccessTokenReqDTO();
+            return userStore.authenticate(tokenReqDTO.getResourceOwnerUsername(),
+                    tokenReqDTO.getResourceOwnerPassword());
+        }
+
+        @Override
+        protected UserStoreManager getUserStoreManager() {
+            return userStore.getUserStoreManager();
+        }
+    }
+
+    /**
+     * Modified access token grant using the in memory user store, with the default token replaced. Its own issue,
+     * which modifies the default token, runs unchanged.
+     */
+    private static class HarnessModifiedAccessTokenPasswordGrant extends ModifiedAccessTokenPasswordGrant {
+
+        private final InMemoryUserStore userStore;
+
+        private HarnessModifiedAccessTokenPasswordGrant(InMemoryUserStore userStore) {
+            this.userStore = userStore;
+        }
+
+        @Override
+        protected OAuth2AccessTokenRespDTO issueDefaultToken(OAuthTokenReqMessageContext tokReqMsgCtx) {
+            return issueUnpersisted(tokReqMsgCtx);
+        }
+
+        @Override
+        protected UserStoreManager getUserStoreManager() {
+            return userStore.getUserStoreManager();
+        }
+    }
+
+    /**
+     * Batch grant verifying with the harness signer.
+     */
+    private static class HarnessBatchDeviceGrant extends BatchDeviceGrant {
+
+        private HarnessBatchDeviceGrant(BatchRequestSigner requestSigner) {
+            super(requestSigner);
+        }
+    }
+
+    /**
+     * Signer accepting the prebuilt requests each time the harness sends them again. Every use records a nonce
+     * of its own, so the nonce cache is measured as it would be with a fresh nonce per request.
+     */
+    private static class HarnessBatchRequestSigner extends BatchRequestSigner {
+
+        private final AtomicLong uses = new AtomicLong();
+
+        private HarnessBatchRequestSigner(long maxSignatureAge) {
+            super(BATCH_SIGNING_KEY, maxSignatureAge);
+        }
+
+        @Override
+        protected boolean acceptNonce(String clientId, String nonce, long signedAt) {
+            return super.acceptNonce(clientId, nonce + '.' + uses.incrementAndGet(), signedAt);
+        }
+    }
+}
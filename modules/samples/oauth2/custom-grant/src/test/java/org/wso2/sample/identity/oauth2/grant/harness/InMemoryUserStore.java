@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.harness;
+
+import org.wso2.carbon.user.api.UserStoreManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read only in memory user store used in place of the user realm of a running server.
+ *
+ * Only the {@link UserStoreManager} methods used by the custom grants are implemented. Users are added before
+ * the harness starts and never modified afterwards, so lookups need no locking.
+ */
+public class InMemoryUserStore {
+
+    private final Map<String, StoredUser> users = new HashMap<>();
+
+    private final UserStoreManager userStoreManager;
+
+    public InMemoryUserStore() {
+        userStoreManager = (UserStoreManager) Proxy.newProxyInstance(InMemoryUserStore.class.getClassLoader(),
+                new Class<?>[]{UserStoreManager.class}, new UserStoreInvocationHandler());
+    }
+
+    /**
+     * Adds a user. Must not be called once the harness is running.
+     */
+    public void addUser(String userName, String password, String[] roles, Map<String, String> claims) {
+        users.put(userName, new StoredUser(password, roles, claims));
+    }
+
+    public boolean authenticate(String userName, String password) {
+        StoredUser user = users.get(userName);
+        return user != null && user.password.equals(password);
+    }
+
+    public UserStoreManager getUserStoreManager() {
+        return userStoreManager;
+    }
+
+    private static final class StoredUser {
+
+        private final String password;
+        private final String[] roles;
+        private final Map<String, String> claims;
+
+        private StoredUser(String password, String[] roles, Map<String, String> claims) {
+            this.password = password;
+            this.roles = roles;
+            this.claims = claims;
+        }
+    }
+
+    private final class UserStoreInvocationHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+            if ("getRoleListOfUser".equals(name)) {
+                StoredUser user = users.get((String) args[0]);
+                return user == null ? new String[0] : user.roles.clone();
+            } else if ("getUserClaimValue".equals(name)) {
+                StoredUser user = users.get((String) args[0]);
+                return user == null ? null : user.claims.get((String) args[1]);
+            } else if ("authenticate".equals(name)) {
+                return authenticate((String) args[0], String.valueOf(args[1]));
+            } else if ("isExistingUser".equals(name)) {
+                return users.containsKey((String) args[0]);
+            } else if ("toString".equals(name)) {
+                return "InMemoryUserStore";
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(name + " is not supported by the in memory user store");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.identity.oauth2.grant.token;
+
+import org.wso2.sample.identity.oauth2.grant.harness.BenchmarkRunner;
+
+/**
+ * Compares the throughput of the token value generators with a growing number of threads.
+ *
+ * Usage : AccessTokenValueGeneratorBenchmark [max threads] [seconds per run]
+ */
+public class AccessTokenValueGeneratorBenchmark {
+
+    private static final String METADATA = "admin@wso2.com";
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+
+        AccessTokenValueGenerator[] generators = new AccessTokenValueGenerator[]{
+                new UUIDAccessTokenValueGenerator(), new SecureRandomAccessTokenValueGenerator()};
+
+        System.out.println(BenchmarkRunner.Result.header());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            BenchmarkRunner runner = new BenchmarkRunner(threads, 1000, seconds * 1000);
+            for (final AccessTokenValueGenerator generator : generators) {
+                BenchmarkRunner.Result result = runner.run(generator.getClass().getSimpleName(),
+                        new BenchmarkRunner.Operation() {
+                            @Override
+                            public int execute(int thread, long iteration) {
+                                return generator.generateAccessToken(METADATA).length();
+                            }
+                        });
+                System.out.println(result);
+            }
+        }
+    }
+}
@@ -3,9 +3,6 @@ package org.wso2.identity.passivests.sample;
 import static org.apache.commons.lang.StringEscapeUtils.escapeHtml;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -15,13 +12,8 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 
-import org.apache.axiom.om.OMAttribute;
-import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.util.AXIOMUtil;
-
 /**
  * Servlet Filter implementation class AuthFilter
  */
@@ -49,10 +41,11 @@ public class AuthFilter implements Filter {
           return;
         }
         
-        String newLineRemovedStr = request.getParameter("wresult").replaceAll("(\\r|\\n)", "");
-        handleResponse(request, newLineRemovedStr);
+        String wresult = request.getParameter("wresult");
+        handleResponse(request, wresult);
         
         if("true".equals(displayFullResponse)){
+            String newLineRemovedStr = wresult.replaceAll("(\\r|\\n)", "");
             String htmlSafeStr = escapeHtml(Utils.prettyFormat(newLineRemovedStr,2));
             request.getSession().setAttribute("RSTR", htmlSafeStr);
             request.getSession().setAttribute("displayFullResponse", "true");
@@ -64,36 +57,17 @@ public class AuthFilter implements Filter {
 	}
 	
 	private void handleResponse(HttpServletRequest request, String response){
-	    OMElement element = null;
-        String username = null;
-        Map<String, String> claimMap = new HashMap<String, String>();
+        SecurityTokenResponse tokenResponse = null;
         
         try {
-            element = AXIOMUtil.stringToOM(response);
+            tokenResponse = SecurityTokenResponse.parse(response);
         } catch (XMLStreamException e) {
             e.printStackTrace();
         }
         
-        element = element.getFirstChildWithName(new QName("http://docs.oasis-open.org/ws-sx/ws-trust/200512", "RequestSecurityTokenResponse"));
-        element = element.getFirstChildWithName(new QName("http://docs.oasis-open.org/ws-sx/ws-trust/200512", "RequestedSecurityToken"));
-        element = element.getFirstChildWithName(new QName("urn:oasis:names:tc:SAML:1.0:assertion", "Assertion"));
-        element = element.getFirstChildWithName(new QName("urn:oasis:names:tc:SAML:1.0:assertion", "AttributeStatement"));
-        
-        if(element != null){
-            OMElement subjectElement = element.getFirstChildWithName(new QName("urn:oasis:names:tc:SAML:1.0:assertion", "Subject"));
-            
-            username = subjectElement.getFirstElement().getText();
-            
-            Iterator itr = element.getChildrenWithName(new QName("urn:oasis:names:tc:SAML:1.0:assertion", "Attribute"));
-            
-            while(itr.hasNext()){
-                OMElement elem = (OMElement)itr.next();
-                String claimURI = ((OMAttribute)elem.getAttribute(new QName("AttributeNamespace"))).getAttributeValue();
-                claimMap.put(claimURI, elem.getFirstElement().getText()); 
-            }
-            
-            request.getSession().setAttribute("message", "Response from the Passive STS for User: " + username);
-            request.getSession().setAttribute("claimMap", claimMap);
+        if(tokenResponse != null){
+            request.getSession().setAttribute("message", "Response from the Passive STS for User: " + tokenResponse.getUsername());
+            request.getSession().setAttribute("claimMap", tokenResponse.getClaimMap());
         } else {
             request.getSession().setAttribute("message", "No claims received! Verify RP is registered at Passive STS");
             request.getSession().setAttribute("claimMap", null);
@@ -0,0 +1,128 @@
+package org.wso2.identity.passivests.sample;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Subject and claims of the SAML 1.1 assertion in a Passive STS response (wresult), read in a single
+ * streaming pass without building an object model of the response.
+ */
+public class SecurityTokenResponse {
+
+    private static final String WS_TRUST_NS = "http://docs.oasis-open.org/ws-sx/ws-trust/200512";
+    private static final String SAML_NS = "urn:oasis:names:tc:SAML:1.0:assertion";
+
+    // elements leading from the root element to the attribute statement, the first match is followed
+    private static final QName[] ATTRIBUTE_STATEMENT_PATH = new QName[] {
+            new QName(WS_TRUST_NS, "RequestSecurityTokenResponse"),
+            new QName(WS_TRUST_NS, "RequestedSecurityToken"),
+            new QName(SAML_NS, "Assertion"),
+            new QName(SAML_NS, "AttributeStatement") };
+
+    private static final QName SUBJECT = new QName(SAML_NS, "Subject");
+    private static final QName ATTRIBUTE = new QName(SAML_NS, "Attribute");
+    private static final String ATTRIBUTE_NAMESPACE = "AttributeNamespace";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private String username;
+    private Map<String, String> claimMap = new HashMap<String, String>();
+
+    private SecurityTokenResponse() {
+    }
+
+    /**
+     * Read the subject and claims of a Passive STS response
+     * @param wresult response returned by the Passive STS
+     * @return subject and claims, or null if the response has no attribute statement
+     * @throws XMLStreamException if the response is not well formed
+     */
+    public static SecurityTokenResponse parse(String wresult) throws XMLStreamException {
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(wresult));
+        try {
+            // the root element is a response collection or the response itself, its name is not checked
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+                return null;
+            }
+            for (QName name : ATTRIBUTE_STATEMENT_PATH) {
+                if (!nextChild(reader, name)) {
+                    return null;
+                }
+            }
+
+            SecurityTokenResponse tokenResponse = new SecurityTokenResponse();
+            boolean subjectRead = false;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (!subjectRead && SUBJECT.equals(reader.getName())) {
+                    // the subject name is the text of the first child of the subject
+                    if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        tokenResponse.username = reader.getElementText();
+                        skipElement(reader);
+                    }
+                    subjectRead = true;
+                } else if (ATTRIBUTE.equals(reader.getName())) {
+                    String claimURI = reader.getAttributeValue(null, ATTRIBUTE_NAMESPACE);
+                    if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        tokenResponse.claimMap.put(claimURI, reader.getElementText());
+                        skipElement(reader);
+                    }
+                } else {
+                    skipElement(reader);
+                }
+            }
+            return tokenResponse;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Move to the first child element with the given name of the current element, skipping other children
+     * @return false if the current element has no such child
+     */
+    private static boolean nextChild(XMLStreamReader reader, QName name) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (name.equals(reader.getName())) {
+                return true;
+            }
+            skipElement(reader);
+        }
+        return false;
+    }
+
+    /**
+     * Skip the rest of the current element, leaving the reader at its end tag
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Map<String, String> getClaimMap() {
+        return claimMap;
+    }
+}
@@ -2,29 +2,57 @@ package org.wso2.identity.passivests.sample;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.*;
 
 public class Utils {
-    
+
+    // identity stylesheet, compiled once; Templates is thread safe and creates cheap transformers
+    private static final String INDENT_STYLESHEET =
+            "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:output method=\"xml\" indent=\"yes\"/>" +
+            "<xsl:template match=\"@*|node()\"><xsl:copy><xsl:apply-templates select=\"@*|node()\"/></xsl:copy>" +
+            "</xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final Templates INDENT_TEMPLATES = compileIndentTemplates();
+
+    private static Templates compileIndentTemplates() {
+        try {
+            return TransformerFactory.newInstance().newTemplates(
+                    new StreamSource(new StringReader(INDENT_STYLESHEET)));
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException("Error while compiling the XML indent stylesheet", e);
+        }
+    }
+
     public static String prettyFormat(String input, int indent) {
         try {
-            Source xmlInput = new StreamSource(new StringReader(input));
-            StringWriter stringWriter = new StringWriter();
-            StreamResult xmlOutput = new StreamResult(stringWriter);
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer(); 
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", String.valueOf(indent));
-            transformer.transform(xmlInput, xmlOutput);
-            return xmlOutput.getWriter().toString();
+            StringWriter stringWriter = new StringWriter(input.length() * 2);
+            prettyFormat(input, indent, stringWriter);
+            return stringWriter.toString();
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
-    }   
+    }
+
+    /**
+     * Writes the indented XML to the writer, e.g. the response writer, without building it as a string
+     */
+    public static void prettyFormat(String input, int indent, Writer writer) throws TransformerException {
+        Source xmlInput = new StreamSource(new StringReader(input));
+        Transformer transformer = INDENT_TEMPLATES.newTransformer();
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", String.valueOf(indent));
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.transform(xmlInput, new StreamResult(writer));
+    }
 }
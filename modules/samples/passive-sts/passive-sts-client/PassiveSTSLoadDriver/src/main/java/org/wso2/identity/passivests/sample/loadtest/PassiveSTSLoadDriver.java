@@ -0,0 +1,270 @@
+package org.wso2.identity.passivests.sample.loadtest;
+
+import static org.apache.commons.lang.StringEscapeUtils.unescapeHtml;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.wso2.identity.passivests.sample.SecurityTokenResponse;
+
+/**
+ * Load driver for the Passive STS sign-in flow of the sample relying party.
+ *
+ * Each virtual user repeats the browser flow: request a relying party page and get redirected to the STS
+ * (redirect), sign in at the STS and receive the auto post form (sign-in), then post the wresult back to the
+ * relying party (wresult). The wresult is checked with the SecurityTokenResponse parser of AuthFilter. Latency
+ * histograms are recorded per step. All users share a pooled keep-alive HTTP client and keep their own cookies.
+ *
+ * Usage: PassiveSTSLoadDriver [users] [seconds] [relying party URL]
+ * Without a relying party URL the flow runs against a local StubPassiveSTS. The credentials are taken from the
+ * username and password system properties, admin/admin by default.
+ */
+public class PassiveSTSLoadDriver {
+
+    private static final String[] STEPS = {"redirect", "sign-in", "wresult"};
+
+    private static final Pattern INPUT_TAG = Pattern.compile("<input\\s[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FORM_TAG = Pattern.compile("<form\\s[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE =
+            Pattern.compile("([\\w:-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')", Pattern.CASE_INSENSITIVE);
+
+    private final String relyingPartyUrl;
+    private final String username;
+    private final String password;
+    private final CloseableHttpClient httpClient;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PassiveSTSLoadDriver(String relyingPartyUrl, String username, String password, int users) {
+        this.relyingPartyUrl = relyingPartyUrl;
+        this.username = username;
+        this.password = password;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(users * 2);
+        connectionManager.setDefaultMaxPerRoute(users * 2);
+        RequestConfig requestConfig = RequestConfig.custom().setRedirectsEnabled(false)
+                .setStaleConnectionCheckEnabled(true).setConnectTimeout(10000).setSocketTimeout(30000).build();
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        String relyingPartyUrl = args.length > 2 ? args[2] : null;
+        String username = System.getProperty("username", "admin");
+        String password = System.getProperty("password", "admin");
+
+        StubPassiveSTS stub = null;
+        if (relyingPartyUrl == null) {
+            stub = new StubPassiveSTS(Math.max(4, users));
+            stub.start();
+            relyingPartyUrl = stub.getRelyingPartyUrl();
+        }
+        System.out.println("Running " + users + " users for " + seconds + "s against " + relyingPartyUrl);
+
+        PassiveSTSLoadDriver driver = new PassiveSTSLoadDriver(relyingPartyUrl, username, password, users);
+        try {
+            driver.run(users, seconds * 1000L);
+        } finally {
+            driver.close();
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+
+    /**
+     * Run the sign-in loop and print the report
+     */
+    public void run(int users, long durationMillis) throws InterruptedException {
+        final LatencyHistogram[][] histograms = new LatencyHistogram[users][STEPS.length];
+        final CountDownLatch start = new CountDownLatch(1);
+        final long end = System.currentTimeMillis() + durationMillis;
+        Thread[] threads = new Thread[users];
+
+        for (int i = 0; i < users; i++) {
+            final LatencyHistogram[] userHistograms = histograms[i];
+            for (int step = 0; step < STEPS.length; step++) {
+                userHistograms[step] = new LatencyHistogram();
+            }
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    HttpClientContext context = HttpClientContext.create();
+                    context.setCookieStore(new BasicCookieStore());
+                    while (System.currentTimeMillis() < end) {
+                        try {
+                            signIn(context, userHistograms);
+                            completed.incrementAndGet();
+                        } catch (Exception e) {
+                            if (failed.incrementAndGet() <= 10) {
+                                System.err.println("Sign-in failed : " + e);
+                            }
+                        }
+                    }
+                }
+            }, "virtual-user-" + i);
+            threads[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - begin) / 1e9;
+
+        System.out.println(String.format("%n%d sign-ins, %d failures, %.1f sign-ins/sec", completed.get(),
+                failed.get(), completed.get() / elapsedSeconds));
+        System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s", "step", "count", "mean(us)",
+                "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)"));
+        for (int step = 0; step < STEPS.length; step++) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (LatencyHistogram[] userHistograms : histograms) {
+                merged.add(userHistograms[step]);
+            }
+            System.out.println(String.format("%-10s %10d %10.0f %10d %10d %10d %10d %10d", STEPS[step],
+                    merged.getCount(), merged.getMean(), merged.getPercentile(50), merged.getPercentile(90),
+                    merged.getPercentile(99), merged.getPercentile(99.9), merged.getMax()));
+        }
+    }
+
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private void signIn(HttpClientContext context, LatencyHistogram[] histograms) throws IOException {
+
+        // redirect : the relying party filter sends the browser to the STS
+        long begin = System.nanoTime();
+        String stsUrl = execute(new HttpGet(relyingPartyUrl), context, 302).location;
+        histograms[0].record((System.nanoTime() - begin) / 1000);
+        if (stsUrl == null) {
+            throw new IOException("Relying party did not redirect to the STS");
+        }
+
+        // sign-in : credentials are passed as the JMeter plan does, the STS answers with the auto post form
+        begin = System.nanoTime();
+        String signInUrl = URI.create(relyingPartyUrl).resolve(stsUrl).toString();
+        signInUrl = signInUrl + (signInUrl.indexOf('?') < 0 ? "?" : "&") + "username=" + encode(username) +
+                "&password=" + encode(password);
+        String form = execute(new HttpGet(signInUrl), context, 200).body;
+        histograms[1].record((System.nanoTime() - begin) / 1000);
+
+        String action = attributes(FORM_TAG, form).get("action");
+        Map<String, String> fields = hiddenFields(form);
+        String wresult = fields.get("wresult");
+        if (action == null || wresult == null) {
+            throw new IOException("STS response carries no wresult form");
+        }
+        try {
+            if (SecurityTokenResponse.parse(wresult) == null) {
+                throw new IOException("wresult carries no attribute statement");
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid wresult : " + e.getMessage());
+        }
+
+        // wresult : post the token back to the relying party
+        begin = System.nanoTime();
+        HttpPost post = new HttpPost(URI.create(signInUrl).resolve(action));
+        List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            parameters.add(new BasicNameValuePair(field.getKey(), field.getValue()));
+        }
+        post.setEntity(new UrlEncodedFormEntity(parameters, "UTF-8"));
+        execute(post, context, 200);
+        histograms[2].record((System.nanoTime() - begin) / 1000);
+    }
+
+    private Result execute(HttpUriRequest request, HttpClientContext context, int expectedStatus)
+            throws IOException {
+        CloseableHttpResponse response = httpClient.execute(request, context);
+        try {
+            Result result = new Result();
+            // the body is always consumed, so the connection goes back to the pool
+            result.body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+            int status = response.getStatusLine().getStatusCode();
+            if (status != expectedStatus) {
+                throw new IOException(request.getMethod() + " " + request.getURI().getPath() + " returned " +
+                        status + " instead of " + expectedStatus);
+            }
+            if (response.getFirstHeader("Location") != null) {
+                result.location = response.getFirstHeader("Location").getValue();
+            }
+            return result;
+        } finally {
+            response.close();
+        }
+    }
+
+    private static Map<String, String> hiddenFields(String html) {
+        Map<String, String> fields = new HashMap<String, String>();
+        Matcher matcher = INPUT_TAG.matcher(html);
+        while (matcher.find()) {
+            Map<String, String> attributes = attributes(matcher.group());
+            if ("hidden".equalsIgnoreCase(attributes.get("type")) && attributes.get("name") != null) {
+                String value = attributes.get("value");
+                fields.put(attributes.get("name"), value == null ? "" : value);
+            }
+        }
+        return fields;
+    }
+
+    private static Map<String, String> attributes(Pattern tag, String html) {
+        Matcher matcher = tag.matcher(html);
+        return matcher.find() ? attributes(matcher.group()) : new HashMap<String, String>();
+    }
+
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+            attributes.put(matcher.group(1).toLowerCase(), unescapeHtml(value));
+        }
+        return attributes;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static class Result {
+        private String body;
+        private String location;
+    }
+}
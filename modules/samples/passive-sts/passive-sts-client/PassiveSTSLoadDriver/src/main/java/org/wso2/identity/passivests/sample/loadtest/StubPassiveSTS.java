@@ -0,0 +1,208 @@
+package org.wso2.identity.passivests.sample.loadtest;
+
+import static org.apache.commons.lang.StringEscapeUtils.escapeHtml;
+import static org.apache.commons.lang.StringEscapeUtils.escapeXml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.wso2.identity.passivests.sample.SecurityTokenResponse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand in for the Passive STS and the sample relying party, so the load driver runs without a network
+ * or an Identity Server.
+ *
+ * The relying party at /PassiveSTSSampleApp/index.jsp redirects to the STS at /passivests as AuthFilter does.
+ * The STS answers a sign-in with an auto post form carrying a SAML 1.1 RSTR with a few claims. The relying party
+ * reads a posted wresult with the same SecurityTokenResponse parser AuthFilter uses.
+ */
+public class StubPassiveSTS {
+
+    public static final String RP_PATH = "/PassiveSTSSampleApp/index.jsp";
+    public static final String STS_PATH = "/passivests";
+    public static final String REALM = "PassiveSTSSampleApp";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param threads number of threads serving requests
+     * @throws IOException if no local port can be bound
+     */
+    public StubPassiveSTS(int threads) throws IOException {
+        // without it small responses wait for delayed acknowledgements and dominate the measured latency
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(RP_PATH, new RelyingPartyHandler());
+        server.createContext(STS_PATH, new STSHandler());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getRelyingPartyUrl() {
+        return getBaseUrl() + RP_PATH;
+    }
+
+    private String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private class RelyingPartyHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    String wresult = parseForm(readBody(exchange)).get("wresult");
+                    SecurityTokenResponse tokenResponse = null;
+                    if (wresult != null) {
+                        try {
+                            tokenResponse = SecurityTokenResponse.parse(wresult);
+                        } catch (XMLStreamException e) {
+                            tokenResponse = null;
+                        }
+                    }
+                    if (tokenResponse == null) {
+                        send(exchange, 400, "No claims received! Verify RP is registered at Passive STS");
+                    } else {
+                        send(exchange, 200, "<html><body>Response from the Passive STS for User: " +
+                                escapeHtml(tokenResponse.getUsername()) + "</body></html>");
+                    }
+                } else {
+                    String location = getBaseUrl() + STS_PATH + "?wa=wsignin1.0&wreply=" +
+                            URLEncoder.encode(getRelyingPartyUrl(), CHARSET) + "&wtrealm=" + REALM;
+                    exchange.getResponseHeaders().set("Location", location);
+                    send(exchange, 302, "");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class STSHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                readBody(exchange);
+                Map<String, String> parameters = parseForm(exchange.getRequestURI().getRawQuery());
+                String username = parameters.get("username");
+                String reply = parameters.get("wreply");
+                if (username == null || parameters.get("password") == null || reply == null) {
+                    send(exchange, 401, "Sign-in failed");
+                    return;
+                }
+                String wctx = parameters.get("wctx") == null ? "" : parameters.get("wctx");
+                send(exchange, 200, "<html><body>\n" +
+                        "<form method=\"post\" action=\"" + escapeHtml(reply) + "\">\n" +
+                        "<input type=\"hidden\" name=\"wa\" value=\"wsignin1.0\"/>\n" +
+                        "<input type=\"hidden\" name=\"wresult\" value=\"" + escapeHtml(rstr(username)) + "\"/>\n" +
+                        "<input type=\"hidden\" name=\"wctx\" value=\"" + escapeHtml(wctx) + "\"/>\n" +
+                        "<button type=\"submit\">POST</button>\n" +
+                        "</form>\n" +
+                        "<script type=\"text/javascript\">document.forms[0].submit();</script>\n" +
+                        "</body></html>");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private String rstr(String username) {
+            String user = escapeXml(username);
+            return "<wst:RequestSecurityTokenResponseCollection " +
+                    "xmlns:wst=\"http://docs.oasis-open.org/ws-sx/ws-trust/200512\">" +
+                    "<wst:RequestSecurityTokenResponse>" +
+                    "<wst:TokenType>urn:oasis:names:tc:SAML:1.0:assertion</wst:TokenType>" +
+                    "<wst:RequestedSecurityToken>" +
+                    "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:1.0:assertion\" MajorVersion=\"1\" " +
+                    "MinorVersion=\"1\" AssertionID=\"_" + Long.toHexString(System.nanoTime()) + "\" " +
+                    "Issuer=\"localhost\">" +
+                    "<saml:AttributeStatement>" +
+                    "<saml:Subject><saml:NameIdentifier>" + user + "</saml:NameIdentifier></saml:Subject>" +
+                    attribute("http://wso2.org/claims/emailaddress", user + "@example.com") +
+                    attribute("http://wso2.org/claims/givenname", user) +
+                    attribute("http://wso2.org/claims/role", "Internal/everyone") +
+                    "</saml:AttributeStatement>" +
+                    "</saml:Assertion>" +
+                    "</wst:RequestedSecurityToken>" +
+                    "</wst:RequestSecurityTokenResponse>" +
+                    "</wst:RequestSecurityTokenResponseCollection>";
+        }
+
+        private String attribute(String claimURI, String value) {
+            return "<saml:Attribute AttributeName=\"" + claimURI + "\" AttributeNamespace=\"" + claimURI + "\">" +
+                    "<saml:AttributeValue>" + value + "</saml:AttributeValue></saml:Attribute>";
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream inputStream = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString(CHARSET);
+    }
+
+    private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (form == null || form.length() == 0) {
+            return parameters;
+        }
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), CHARSET),
+                        URLDecoder.decode(pair.substring(separator + 1), CHARSET));
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(CHARSET);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=" + CHARSET);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(bytes);
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.scim.sample.user;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.wso2.charon.core.schema.SCIMConstants;
+import org.wso2.scim.sample.utils.ListResponseHandler;
+import org.wso2.scim.sample.utils.SCIMSamplesUtils;
+import org.wso2.scim.sample.utils.UserRecordReader;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provisions the users of a CSV or JSON lines export through the SCIM Bulk endpoint.
+ *
+ * Users are read one at a time and packed into bulk requests of bulk.batch.size POST operations, which are sent by
+ * bulk.threads workers sharing a pool of keep-alive connections. At most two batches per worker are read ahead, so
+ * the memory used does not grow with the size of the export. Creating a user is not idempotent, so only users the
+ * server provably did not process are sent again, bulk.max.retries times with a growing delay: those of requests
+ * that could not connect or were answered with a 429 or 503 status, and operations answered with one of those
+ * statuses. When a request fails after it was sent, or with a 502 or 504 status, each of its users is looked up by
+ * userName first and only the users that do not exist are sent again. bulk.fail.on.errors is sent as the
+ * failOnErrors of every request, and once that many operations have failed in total no further users are read.
+ *
+ * Usage: BulkProvisionUsers [export file] [batch size] [threads]
+ * The export is read as CSV if the file name ends with .csv, as JSON lines otherwise.
+ */
+public class BulkProvisionUsers {
+
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private static final AtomicLong created = new AtomicLong();
+
+    private static final AtomicLong failed = new AtomicLong();
+
+    private static final AtomicLong skipped = new AtomicLong();
+
+    private static final AtomicLong retries = new AtomicLong();
+
+    private static final AtomicLong lookups = new AtomicLong();
+
+    private static HttpClient httpClient;
+
+    public static void main(String[] args) {
+
+        if (args.length < 1) {
+            System.err.println("Usage: BulkProvisionUsers [export file] [batch size] [threads]");
+            System.exit(1);
+        }
+
+        try {
+            //load sample configuration
+            SCIMSamplesUtils.loadConfiguration();
+            //set the keystore
+            SCIMSamplesUtils.setKeyStore();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String file = args[0];
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : SCIMSamplesUtils.bulkBatchSize;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : SCIMSamplesUtils.bulkThreads;
+        int failOnErrors = SCIMSamplesUtils.bulkFailOnErrors;
+
+        //all workers share one http client, keeping a connection per worker alive
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(threads);
+        params.setMaxTotalConnections(threads);
+        httpClient = new HttpClient(connectionManager);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        long read = 0;
+        long rejected = 0;
+        boolean stopped = false;
+        long begin = System.currentTimeMillis();
+        long lastProgress = begin;
+
+        UserRecordReader reader = null;
+        try {
+            reader = new UserRecordReader(new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    "UTF-8")), file.toLowerCase().endsWith(".csv"));
+            String user = reader.nextUser();
+            while (user != null) {
+                final Map<String, String> operations = new LinkedHashMap<String, String>();
+                while (user != null && operations.size() < batchSize) {
+                    String bulkId = "user" + reader.getLineNumber();
+                    operations.put(bulkId, "{\"method\":\"POST\",\"path\":\"/Users\",\"bulkId\":\"" + bulkId +
+                            "\",\"data\":" + user + "}");
+                    user = reader.nextUser();
+                }
+                read += operations.size();
+                rejected = countRejected(reader, rejected);
+
+                inFlight.acquire();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            provision(operations);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+
+                if (failOnErrors > 0 && failed.get() >= failOnErrors) {
+                    System.err.println("Stopping after " + failed.get() + " errors");
+                    stopped = true;
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    lastProgress = now;
+                    System.out.println("Read " + read + " users, created " + created.get() + ", " +
+                            (created.get() * 1000 / (now - begin)) + " users/sec, " + failed.get() + " errors");
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            stopped = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        } finally {
+            if (reader != null) {
+                rejected = countRejected(reader, rejected);
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            connectionManager.shutdown();
+        }
+
+        read += rejected;
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        System.out.println("");
+        System.out.println("/******SCIM bulk provisioning " + (stopped ? "stopped" : "completed") + " in " +
+                elapsed + " ms");
+        System.out.println("Users read: " + read + ", created: " + created.get() + ", errors: " + failed.get() +
+                ", not processed: " + skipped.get() + ", retries: " + retries.get() + ", lookups: " + lookups.get());
+        System.out.println("Throughput: " + (read * 1000 / elapsed) + " rows/sec, " +
+                (created.get() * 1000 / elapsed) + " users created/sec******/");
+        System.out.println("");
+    }
+
+    /**
+     * Count the records the reader skipped since the last call as failed users
+     * @param reader export reader
+     * @param counted records of the reader counted so far
+     * @return records of the reader counted now
+     */
+    private static long countRejected(UserRecordReader reader, long counted) {
+        long rejected = reader.getRejectedRecords();
+        failed.addAndGet(rejected - counted);
+        return rejected;
+    }
+
+    /**
+     * Send one batch, resending the operations the server did not process
+     */
+    private static void provision(Map<String, String> operations) {
+        for (int attempt = 0; ; attempt++) {
+            Map<String, String> retryable = send(operations);
+            if (retryable.isEmpty()) {
+                return;
+            }
+            if (attempt >= SCIMSamplesUtils.bulkMaxRetries) {
+                failed.addAndGet(retryable.size());
+                return;
+            }
+            retries.addAndGet(retryable.size());
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAndGet(retryable.size());
+                return;
+            }
+            operations = retryable;
+        }
+    }
+
+    /**
+     * @return the operations the server did not process, to be sent again
+     */
+    private static Map<String, String> send(Map<String, String> operations) {
+
+        StringBuilder request = new StringBuilder(operations.size() * 512);
+        request.append("{\"schemas\":[\"urn:scim:schemas:core:1.0\"],\"failOnErrors\":")
+                .append(SCIMSamplesUtils.bulkFailOnErrors).append(",\"Operations\":[");
+        boolean first = true;
+        for (String operation : operations.values()) {
+            if (!first) {
+                request.append(',');
+            }
+            request.append(operation);
+            first = false;
+        }
+        request.append("]}");
+
+        PostMethod postMethod = new PostMethod(SCIMSamplesUtils.bulkEndpointURL);
+        try {
+            postMethod.addRequestHeader(SCIMConstants.AUTHORIZATION_HEADER, SCIMSamplesUtils.getAuthorizationHeader());
+            postMethod.setRequestEntity(new StringRequestEntity(request.toString(), SCIMSamplesUtils.CONTENT_TYPE,
+                    "UTF-8"));
+            int responseStatus;
+            try {
+                responseStatus = httpClient.executeMethod(postMethod);
+            } catch (ConnectException e) {
+                //the request was not sent
+                return operations;
+            } catch (ConnectTimeoutException e) {
+                return operations;
+            } catch (UnknownHostException e) {
+                return operations;
+            }
+
+            if (isRejected(responseStatus)) {
+                postMethod.getResponseBodyAsString();
+                return operations;
+            }
+            if (isAmbiguous(responseStatus)) {
+                System.err.println("Bulk request of " + operations.size() + " users failed with status " +
+                        responseStatus + ", looking the users up");
+                return findUnprocessed(operations);
+            }
+            if (responseStatus != 200) {
+                failed.addAndGet(operations.size());
+                reportError("Bulk request of " + operations.size() + " users failed with status " +
+                        responseStatus + ": " + postMethod.getResponseBodyAsString());
+                return new LinkedHashMap<String, String>();
+            }
+
+            JSONObject response = (JSONObject) new JSONParser().parse(
+                    new InputStreamReader(postMethod.getResponseBodyAsStream(), "UTF-8"));
+            return collectResults(operations, (JSONArray) response.get("Operations"));
+        } catch (IOException e) {
+            //the request may have been processed
+            System.err.println("Bulk request of " + operations.size() + " users failed: " + e.getMessage() +
+                    ", looking the users up");
+            return findUnprocessed(operations);
+        } catch (ParseException e) {
+            //the users may have been created, so the batch is not sent again
+            failed.addAndGet(operations.size());
+            reportError("Invalid bulk response for " + operations.size() + " users: " + e);
+            return new LinkedHashMap<String, String>();
+        } catch (ClassCastException e) {
+            failed.addAndGet(operations.size());
+            reportError("Invalid bulk response for " + operations.size() + " users: " + e);
+            return new LinkedHashMap<String, String>();
+        } finally {
+            postMethod.releaseConnection();
+        }
+    }
+
+    private static Map<String, String> collectResults(Map<String, String> operations, JSONArray results) {
+
+        Map<String, String> unanswered = new LinkedHashMap<String, String>(operations);
+        Map<String, String> retryable = new LinkedHashMap<String, String>();
+        if (results != null) {
+            for (Object result : results) {
+                JSONObject operation = (JSONObject) result;
+                String bulkId = (String) operation.get("bulkId");
+                if (unanswered.remove(bulkId) == null) {
+                    continue;
+                }
+                Object status = operation.get("status");
+                if (status instanceof JSONObject) {
+                    status = ((JSONObject) status).get("code");
+                }
+                int code = 0;
+                try {
+                    code = Integer.parseInt(String.valueOf(status).trim());
+                } catch (NumberFormatException e) {
+                    //counted as a failure below
+                }
+                if (code >= 200 && code < 300) {
+                    created.incrementAndGet();
+                } else if (isRejected(code)) {
+                    retryable.put(bulkId, operations.get(bulkId));
+                } else if (isAmbiguous(code)) {
+                    Map<String, String> ambiguous = new LinkedHashMap<String, String>();
+                    ambiguous.put(bulkId, operations.get(bulkId));
+                    retryable.putAll(findUnprocessed(ambiguous));
+                } else {
+                    failed.incrementAndGet();
+                    reportError("Provisioning " + bulkId + " failed: " + operation.toJSONString());
+                }
+            }
+        }
+        //the server stops processing a request once failOnErrors operations failed
+        skipped.addAndGet(unanswered.size());
+        return retryable;
+    }
+
+    /**
+     * Look up the users of operations that may or may not have been processed, counting the existing ones as created
+     * @return the operations whose user does not exist, to be sent again
+     */
+    private static Map<String, String> findUnprocessed(Map<String, String> operations) {
+
+        Map<String, String> unprocessed = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> operation : operations.entrySet()) {
+            String userName = null;
+            try {
+                JSONObject user = (JSONObject) ((JSONObject) new JSONParser().parse(operation.getValue())).get("data");
+                if (user != null) {
+                    userName = (String) user.get("userName");
+                }
+            } catch (ParseException e) {
+                //reported below
+            } catch (ClassCastException e) {
+                //reported below
+            }
+            if (userName == null) {
+                failed.incrementAndGet();
+                reportError("Provisioning " + operation.getKey() + " failed and its user has no userName to look up");
+                continue;
+            }
+            lookups.incrementAndGet();
+            try {
+                if (userExists(userName)) {
+                    created.incrementAndGet();
+                } else {
+                    unprocessed.put(operation.getKey(), operation.getValue());
+                }
+            } catch (IOException e) {
+                //not known whether the user was created, so it is not sent again
+                failed.incrementAndGet();
+                reportError("Provisioning " + operation.getKey() + " failed and user " + userName +
+                        " can not be looked up: " + e.getMessage());
+            }
+        }
+        return unprocessed;
+    }
+
+    private static boolean userExists(String userName) throws IOException {
+
+        GetMethod getMethod = new GetMethod(SCIMSamplesUtils.userEndpointURL);
+        try {
+            getMethod.addRequestHeader(SCIMConstants.AUTHORIZATION_HEADER, SCIMSamplesUtils.getAuthorizationHeader());
+            getMethod.setQueryString(SCIMSamplesUtils.USER_FILTER + URLEncoder.encode(userName, "UTF-8"));
+            int responseStatus = httpClient.executeMethod(getMethod);
+            if (responseStatus == 404) {
+                getMethod.getResponseBodyAsString();
+                return false;
+            }
+            if (responseStatus != 200) {
+                throw new IOException("status " + responseStatus);
+            }
+            ListResponseHandler handler = new ListResponseHandler();
+            new JSONParser().parse(new BufferedReader(new InputStreamReader(getMethod.getResponseBodyAsStream(),
+                    "UTF-8")), handler);
+            return handler.getTotalResults() > 0 || !handler.getResources().isEmpty();
+        } catch (ParseException e) {
+            throw new IOException("invalid response: " + e);
+        } finally {
+            getMethod.releaseConnection();
+        }
+    }
+
+    /**
+     * @return true if the server refused the request or operation without processing it
+     */
+    private static boolean isRejected(int status) {
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * @return true if a gateway failed, after which the request or operation may or may not have been processed
+     */
+    private static boolean isAmbiguous(int status) {
+        return status == 502 || status == 504;
+    }
+
+    private static void reportError(String message) {
+        if (failed.get() <= MAX_REPORTED_ERRORS) {
+            System.err.println(message);
+        }
+    }
+}
@@ -19,14 +19,47 @@ package org.wso2.scim.sample.user;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.wso2.charon.core.schema.SCIMConstants;
+import org.wso2.scim.sample.utils.ListResponseHandler;
 import org.wso2.scim.sample.utils.SCIMSamplesUtils;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Lists the users of the SCIM user endpoint.
+ *
+ * Usage: ListUsers [output file] [page size] [prefetched pages]
+ * Without arguments the whole list is fetched in one request and printed. With an output file the users are exported
+ * to it one per line, in JSON lines format, by paging through the list with startIndex and count. Each page is
+ * parsed as it is received and the next pages are fetched concurrently, so only the prefetched pages are in memory.
+ * The first page is fetched alone: if the endpoint returns the whole list or fewer users than requested per page,
+ * the next pages follow from what it returned. A page repeating users of the previous one stops the export.
+ */
 public class ListUsers {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            exportUsers(args);
+            return;
+        }
         try {
             SCIMSamplesUtils.loadConfiguration();
             //set the keystore
@@ -53,4 +86,182 @@ public class ListUsers {
             e.printStackTrace();  
         }
     }
+
+    private static void exportUsers(String[] args) {
+        try {
+            SCIMSamplesUtils.loadConfiguration();
+            //set the keystore
+            SCIMSamplesUtils.setKeyStore();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String file = args[0];
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : SCIMSamplesUtils.exportPageSize;
+        int prefetch = args.length > 2 ? Integer.parseInt(args[2]) : SCIMSamplesUtils.exportPrefetchPages;
+
+        //one keep-alive connection per prefetched page
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(prefetch);
+        params.setMaxTotalConnections(prefetch);
+        HttpClient httpClient = new HttpClient(connectionManager);
+        ExecutorService executor = Executors.newFixedThreadPool(prefetch);
+
+        LinkedList<Future<ListResponseHandler>> pages = new LinkedList<Future<ListResponseHandler>>();
+        long exported = 0;
+        long totalResults = -1;
+        boolean failed = true;
+        long begin = System.currentTimeMillis();
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+            //the first page tells whether the endpoint pages at all and how many users it returns per page
+            ListResponseHandler page = new PageFetcher(httpClient, 1, pageSize).call();
+            totalResults = page.getTotalResults();
+            int received = page.getResources().size();
+            write(writer, page);
+            exported = received;
+            Set<String> previousIds = new HashSet<String>(page.getIds());
+
+            int step = pageSize;
+            boolean lastPage;
+            if (received > pageSize || (totalResults >= 0 && received >= totalResults)) {
+                if (received > pageSize) {
+                    System.out.println("The user endpoint does not support paging, exported the full list");
+                }
+                lastPage = true;
+            } else if (received == 0 || (received < pageSize && totalResults < 0)) {
+                lastPage = true;
+            } else {
+                //the endpoint may cap the page size, in which case the next pages start where this one ended
+                step = received;
+                lastPage = false;
+            }
+
+            long nextIndex = 1 + exported;
+            while (!lastPage) {
+                //keep the next pages in flight while this one is written
+                while (pages.size() < prefetch && (totalResults < 0 || nextIndex <= totalResults)) {
+                    pages.add(executor.submit(new PageFetcher(httpClient, nextIndex, step)));
+                    nextIndex += step;
+                }
+                if (pages.isEmpty()) {
+                    break;
+                }
+                page = pages.removeFirst().get();
+                received = page.getResources().size();
+                for (String id : page.getIds()) {
+                    if (previousIds.contains(id)) {
+                        throw new IOException("SCIM: the page at " + (exported + 1) + " repeats user " + id +
+                                " of the previous page, the user endpoint does not honour startIndex");
+                    }
+                }
+                write(writer, page);
+                exported += received;
+                previousIds = new HashSet<String>(page.getIds());
+                if (page.getTotalResults() >= 0) {
+                    totalResults = page.getTotalResults();
+                }
+
+                long expected = totalResults < 0 ? step : Math.min(step, totalResults - (exported - received));
+                if (received > step) {
+                    throw new IOException("SCIM: the page at " + (exported - received + 1) + " has " + received +
+                            " users, more than the " + step + " requested");
+                } else if (received == 0 && totalResults >= 0) {
+                    throw new IOException("SCIM: the page at " + (exported + 1) + " is empty, " +
+                            (totalResults - exported) + " more users were expected");
+                } else if (received == 0 || (totalResults < 0 && received < step)) {
+                    lastPage = true;
+                } else if (received < expected) {
+                    //a short page before the end: fetch again from where it ended, with the smaller step
+                    for (Future<ListResponseHandler> pending : pages) {
+                        pending.cancel(true);
+                    }
+                    pages.clear();
+                    step = received;
+                    nextIndex = exported + 1;
+                }
+                if (totalResults >= 0 && exported >= totalResults) {
+                    lastPage = true;
+                }
+            }
+            for (Future<ListResponseHandler> pending : pages) {
+                pending.cancel(true);
+            }
+            failed = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            executor.shutdownNow();
+            connectionManager.shutdown();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        System.out.println("");
+        System.out.println("/******SCIM: " + (failed ? "export failed after exporting " : "exported ") + exported +
+                " of " + (totalResults < 0 ? "?" : totalResults) + " users to " + file + " in " + elapsed + " ms, " +
+                (exported * 1000 / elapsed) + " users/sec******/");
+        System.out.println("");
+    }
+
+    private static void write(Writer writer, ListResponseHandler page) throws IOException {
+        for (String user : page.getResources()) {
+            writer.write(user);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Fetch and parse one page of the user list
+     */
+    private static class PageFetcher implements Callable<ListResponseHandler> {
+
+        private final HttpClient httpClient;
+
+        private final long startIndex;
+
+        private final int count;
+
+        private PageFetcher(HttpClient httpClient, long startIndex, int count) {
+            this.httpClient = httpClient;
+            this.startIndex = startIndex;
+            this.count = count;
+        }
+
+        public ListResponseHandler call() throws IOException, ParseException {
+            GetMethod getMethod = new GetMethod(SCIMSamplesUtils.userEndpointURL);
+            try {
+                getMethod.setQueryString("startIndex=" + startIndex + "&count=" + count);
+                getMethod.addRequestHeader(SCIMConstants.AUTHORIZATION_HEADER,
+                        SCIMSamplesUtils.getAuthorizationHeader());
+                int responseCode = httpClient.executeMethod(getMethod);
+                if (responseCode != 200) {
+                    throw new IOException("SCIM: list users from " + startIndex + " failed with status " +
+                            responseCode + ": " + getMethod.getResponseBodyAsString());
+                }
+                ListResponseHandler handler = new ListResponseHandler();
+                new JSONParser().parse(new BufferedReader(new InputStreamReader(getMethod.getResponseBodyAsStream(),
+                        "UTF-8")), handler);
+                return handler;
+            } finally {
+                getMethod.releaseConnection();
+            }
+        }
+    }
 }
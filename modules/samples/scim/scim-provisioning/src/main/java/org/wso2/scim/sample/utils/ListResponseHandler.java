@@ -0,0 +1,181 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.scim.sample.utils;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Streaming handler of a SCIM list response, for JSONParser.parse(Reader, ContentHandler).
+ *
+ * Each element of the Resources array is written back to compact JSON as it is parsed, so the response body is
+ * never held as a whole; only the resources of the page, their ids and totalResults are kept.
+ */
+public class ListResponseHandler implements ContentHandler {
+
+    private final List<String> resources = new ArrayList<String>();
+
+    private final List<String> ids = new ArrayList<String>();
+
+    private long totalResults = -1;
+
+    private final StringBuilder resource = new StringBuilder(512);
+
+    /*whether the next value of each open object or array of the current resource is its first one*/
+    private final LinkedList<Boolean> first = new LinkedList<Boolean>();
+
+    private int depth;
+
+    private String topLevelKey;
+
+    private String resourceKey;
+
+    private boolean inResources;
+
+    private boolean afterKey;
+
+    /**
+     * @return the resources of the page in JSON format
+     */
+    public List<String> getResources() {
+        return resources;
+    }
+
+    /**
+     * @return the ids of the resources of the page, in the order of the page
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return totalResults of the response, or -1 if it had none
+     */
+    public long getTotalResults() {
+        return totalResults;
+    }
+
+    public void startJSON() {
+    }
+
+    public void endJSON() {
+    }
+
+    public boolean startObject() {
+        depth++;
+        if (inResource()) {
+            beginValue();
+            resource.append('{');
+            first.push(Boolean.TRUE);
+        }
+        return true;
+    }
+
+    public boolean endObject() {
+        if (inResource()) {
+            resource.append('}');
+            first.pop();
+            if (depth == 3) {
+                resources.add(resource.toString());
+                resource.setLength(0);
+            }
+        }
+        depth--;
+        return true;
+    }
+
+    public boolean startObjectEntry(String key) {
+        if (depth == 1) {
+            topLevelKey = key;
+        } else if (inResource()) {
+            if (depth == 3) {
+                resourceKey = key;
+            }
+            beginValue();
+            resource.append('"').append(JSONValue.escape(key)).append("\":");
+            afterKey = true;
+        }
+        return true;
+    }
+
+    public boolean endObjectEntry() {
+        return true;
+    }
+
+    public boolean startArray() {
+        depth++;
+        if (depth == 2 && "Resources".equals(topLevelKey)) {
+            inResources = true;
+        } else if (inResource()) {
+            beginValue();
+            resource.append('[');
+            first.push(Boolean.TRUE);
+        }
+        return true;
+    }
+
+    public boolean endArray() {
+        if (inResource()) {
+            resource.append(']');
+            first.pop();
+        } else if (depth == 2) {
+            inResources = false;
+        }
+        depth--;
+        return true;
+    }
+
+    public boolean primitive(Object value) {
+        if (depth == 1 && "totalResults".equals(topLevelKey) && value instanceof Number) {
+            totalResults = ((Number) value).longValue();
+        } else if (inResource()) {
+            if (depth == 3 && "id".equals(resourceKey) && value != null) {
+                ids.add(value.toString());
+            }
+            beginValue();
+            if (value instanceof String) {
+                resource.append('"').append(JSONValue.escape((String) value)).append('"');
+            } else {
+                resource.append(value);
+            }
+        }
+        return true;
+    }
+
+    private boolean inResource() {
+        return inResources && depth >= 3;
+    }
+
+    /**
+     * Separate a value from the previous one of the enclosing object or array
+     */
+    private void beginValue() {
+        if (afterKey) {
+            afterKey = false;
+        } else if (!first.isEmpty()) {
+            if (!first.peek()) {
+                resource.append(',');
+            }
+            first.set(0, Boolean.FALSE);
+        }
+    }
+}
@@ -46,6 +46,13 @@ public class SCIMSamplesUtils {
     public static final String PROPERTY_NAME_PASSWORD = "provisioning.password";
     public static final String PROPERTY_NAME_ENABLE_OAUTH = "enable.oauth";
     public static final String PROPERTY_NAME_ACCESS_TOKEN = "oauth.access.token";
+    public static final String PROPERTY_NAME_BULK_ENDPOINT_URL = "bulk.endpoint";
+    public static final String PROPERTY_NAME_BULK_BATCH_SIZE = "bulk.batch.size";
+    public static final String PROPERTY_NAME_BULK_THREADS = "bulk.threads";
+    public static final String PROPERTY_NAME_BULK_FAIL_ON_ERRORS = "bulk.fail.on.errors";
+    public static final String PROPERTY_NAME_BULK_MAX_RETRIES = "bulk.max.retries";
+    public static final String PROPERTY_NAME_EXPORT_PAGE_SIZE = "export.page.size";
+    public static final String PROPERTY_NAME_EXPORT_PREFETCH_PAGES = "export.prefetch.pages";
 
     public static final String USER_FILTER = "filter=userNameEq";
     public static final String GROUP_FILTER = "filter=displayNameEq";
@@ -60,6 +67,15 @@ public class SCIMSamplesUtils {
     public static boolean enableOAuth = false;
     public static String oauthAccessToken = null;
 
+    public static String bulkEndpointURL = null;
+    public static int bulkBatchSize = 100;
+    public static int bulkThreads = 4;
+    public static int bulkFailOnErrors = 0;
+    public static int bulkMaxRetries = 3;
+
+    public static int exportPageSize = 500;
+    public static int exportPrefetchPages = 4;
+
     public static String userNameToCreateUser = "HasiniTG";
     public static String userNameToUpdateUser = "HasiniG";
     public static String userNameToDeleteUser = "HasiniG";
@@ -93,6 +109,25 @@ public class SCIMSamplesUtils {
         String isOAuth = properties.getProperty(PROPERTY_NAME_ENABLE_OAUTH);
         enableOAuth = Boolean.parseBoolean(isOAuth);
         oauthAccessToken = properties.getProperty(PROPERTY_NAME_ACCESS_TOKEN);
+
+        bulkEndpointURL = properties.getProperty(PROPERTY_NAME_BULK_ENDPOINT_URL);
+        if (bulkEndpointURL == null && userEndpointURL != null && userEndpointURL.endsWith("/Users")) {
+            bulkEndpointURL = userEndpointURL.substring(0, userEndpointURL.length() - "Users".length()) + "Bulk";
+        }
+        bulkBatchSize = getIntProperty(properties, PROPERTY_NAME_BULK_BATCH_SIZE, bulkBatchSize);
+        bulkThreads = getIntProperty(properties, PROPERTY_NAME_BULK_THREADS, bulkThreads);
+        bulkFailOnErrors = getIntProperty(properties, PROPERTY_NAME_BULK_FAIL_ON_ERRORS, bulkFailOnErrors);
+        bulkMaxRetries = getIntProperty(properties, PROPERTY_NAME_BULK_MAX_RETRIES, bulkMaxRetries);
+        exportPageSize = getIntProperty(properties, PROPERTY_NAME_EXPORT_PAGE_SIZE, exportPageSize);
+        exportPrefetchPages = getIntProperty(properties, PROPERTY_NAME_EXPORT_PREFETCH_PAGES, exportPrefetchPages);
+    }
+
+    private static int getIntProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value != null && value.trim().length() > 0) {
+            return Integer.parseInt(value.trim());
+        }
+        return defaultValue;
     }
 
     /*Util method to get authorization header according to the authentication method specified*/
@@ -0,0 +1,274 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.scim.sample.utils;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads user records one at a time from a CSV or a JSON lines export and returns each as a SCIM user in JSON format.
+ *
+ * A CSV file starts with a header row naming the columns; the supported columns are userName, password,
+ * externalId, displayName, givenName, familyName, emails and phoneNumber. Several emails are separated by ';'.
+ * Fields may be quoted, with "" standing for a quote inside a quoted field.
+ * In a JSON lines file every non empty line is a complete SCIM user object, which is passed on as it is.
+ * A record without a userName, a CSV record with the wrong number of fields and a line which is not a JSON object
+ * are skipped.
+ */
+public class UserRecordReader implements Closeable {
+
+    private static final List<String> CSV_COLUMNS = Arrays.asList("userName", "password", "externalId",
+            "displayName", "givenName", "familyName", "emails", "phoneNumber");
+
+    private final BufferedReader reader;
+
+    private final boolean csv;
+
+    private int[] columns;
+
+    private long lineNumber;
+
+    private long rejectedRecords;
+
+    /**
+     * @param reader export to read
+     * @param csv true for a CSV export, false for JSON lines
+     */
+    public UserRecordReader(BufferedReader reader, boolean csv) {
+        this.reader = reader;
+        this.csv = csv;
+    }
+
+    /**
+     * Malformed records are skipped and counted, see {@link #getRejectedRecords()}.
+     * @return the next user in SCIM JSON format, or null at the end of the export
+     * @throws IOException if the export can not be read or the CSV header has no userName column
+     */
+    public String nextUser() throws IOException {
+        return csv ? nextCSVUser() : nextJSONUser();
+    }
+
+    /**
+     * @return line of the export the last record ended on
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return number of malformed records skipped so far
+     */
+    public long getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String nextJSONUser() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            Object user = JSONValue.parse(line);
+            if (!(user instanceof JSONObject)) {
+                reject(lineNumber, "not a JSON object");
+            } else if (!isUserName(((JSONObject) user).get("userName"))) {
+                reject(lineNumber, "no userName");
+            } else {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private String nextCSVUser() throws IOException {
+        if (columns == null) {
+            List<String> header = readRecord();
+            if (header == null) {
+                return null;
+            }
+            columns = new int[header.size()];
+            boolean hasUserName = false;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = CSV_COLUMNS.indexOf(header.get(i).trim());
+                if (columns[i] < 0) {
+                    System.err.println("Ignoring unknown CSV column: " + header.get(i));
+                }
+                hasUserName |= columns[i] == 0;
+            }
+            if (!hasUserName) {
+                throw new IOException("CSV header has no userName column");
+            }
+        }
+
+        while (true) {
+            long firstLine = lineNumber + 1;
+            List<String> record = readRecord();
+            if (record == null) {
+                return null;
+            }
+            if (record.size() == 1 && record.get(0).length() == 0) {
+                continue;
+            }
+            if (record.size() != columns.length) {
+                reject(firstLine, record.size() + " fields, expected " + columns.length);
+                continue;
+            }
+            String[] values = new String[CSV_COLUMNS.size()];
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] >= 0 && record.get(i).length() > 0) {
+                    values[columns[i]] = record.get(i);
+                }
+            }
+            if (values[0] == null) {
+                reject(firstLine, "no userName");
+                continue;
+            }
+            return toSCIMUser(values);
+        }
+    }
+
+    private static boolean isUserName(Object userName) {
+        return userName instanceof String && ((String) userName).length() > 0;
+    }
+
+    private void reject(long line, String reason) {
+        rejectedRecords++;
+        System.err.println("Skipping record at line " + line + ": " + reason);
+    }
+
+    /**
+     * @return the next line, without the byte order mark some editors write at the start of a UTF-8 file
+     */
+    private String readLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null && lineNumber++ == 0 && line.length() > 0 && line.charAt(0) == '\uFEFF') {
+            line = line.substring(1);
+        }
+        return line;
+    }
+
+    private List<String> readRecord() throws IOException {
+        long firstLine = lineNumber + 1;
+        String line = readLine();
+        if (line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // a quoted field spans the line break
+                line = readLine();
+                if (line == null) {
+                    reject(firstLine, "unterminated quoted field");
+                    return null;
+                }
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String toSCIMUser(String[] values) {
+        StringBuilder user = new StringBuilder(256);
+        user.append("{\"schemas\":[\"urn:scim:schemas:core:1.0\"]");
+        appendString(user, "userName", values[0]);
+        appendString(user, "password", values[1]);
+        appendString(user, "externalId", values[2]);
+        appendString(user, "displayName", values[3]);
+        if (values[4] != null || values[5] != null) {
+            user.append(",\"name\":{");
+            if (values[4] != null) {
+                user.append("\"givenName\":\"").append(JSONValue.escape(values[4])).append('"');
+            }
+            if (values[5] != null) {
+                if (values[4] != null) {
+                    user.append(',');
+                }
+                user.append("\"familyName\":\"").append(JSONValue.escape(values[5])).append('"');
+            }
+            user.append('}');
+        }
+        if (values[6] != null) {
+            user.append(",\"emails\":[");
+            boolean first = true;
+            for (String email : values[6].split(";")) {
+                email = email.trim();
+                if (email.length() == 0) {
+                    continue;
+                }
+                if (!first) {
+                    user.append(',');
+                }
+                user.append("{\"value\":\"").append(JSONValue.escape(email)).append("\",\"primary\":")
+                        .append(first).append('}');
+                first = false;
+            }
+            user.append(']');
+        }
+        if (values[7] != null) {
+            user.append(",\"phoneNumbers\":[{\"value\":\"").append(JSONValue.escape(values[7]))
+                    .append("\",\"type\":\"work\"}]");
+        }
+        return user.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder user, String name, String value) {
+        if (value != null) {
+            user.append(",\"").append(name).append("\":\"").append(JSONValue.escape(value)).append('"');
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.security.SAMLSignatureProfileValidator;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.validation.ValidationException;
+import org.wso2.carbon.identity.sso.agent.SSOAgentException;
+import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
+import org.wso2.carbon.identity.sso.agent.saml.SAMLSignatureValidator;
+import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509Credential;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Signature validator of SAML responses and assertions which prepares the IdP credential once.
+ *
+ * The default validator builds a new OpenSAML credential and signature validator from the agent credential for
+ * every response. This one keeps the prepared signature validator per IdP and reuses it for as long as the agent
+ * credential returns the same certificate instance, so a reloaded key store is picked up. The signature profile
+ * validator is stateless and shared. Only the prepared objects are cached, every signature is still verified.
+ *
+ * Enabled with the SAML2.SignatureValidatorImplClass property of the agent.
+ */
+public class CachingSAMLSignatureValidator implements SAMLSignatureValidator {
+
+    private static final SAMLSignatureProfileValidator PROFILE_VALIDATOR = new SAMLSignatureProfileValidator();
+
+    // prepared validators by IdP entity ID, bounded by the number of configured IdPs
+    private static final ConcurrentMap<String, PreparedValidator> VALIDATORS =
+            new ConcurrentHashMap<String, PreparedValidator>();
+
+    public void validateSignature(Response response, Assertion assertion, SSOAgentConfig ssoAgentConfig)
+            throws SSOAgentException {
+
+        if (ssoAgentConfig.getSAML2().isResponseSigned()) {
+            if (response.getSignature() == null) {
+                throw new SSOAgentException("SAML2 Response signing is enabled, but signature element not " +
+                        "found in SAML2 Response element");
+            }
+            validate(response.getSignature(), ssoAgentConfig);
+        }
+        if (ssoAgentConfig.getSAML2().isAssertionSigned()) {
+            if (assertion == null || assertion.getSignature() == null) {
+                throw new SSOAgentException("SAML2 Assertion signing is enabled, but signature element not " +
+                        "found in SAML2 Assertion element");
+            }
+            validate(assertion.getSignature(), ssoAgentConfig);
+        }
+    }
+
+    private static void validate(Signature signature, SSOAgentConfig ssoAgentConfig) throws SSOAgentException {
+        try {
+            PROFILE_VALIDATOR.validate(signature);
+        } catch (ValidationException e) {
+            throw new SSOAgentException("Signature do not confirm to SAML signature profile.", e);
+        }
+        try {
+            getSignatureValidator(ssoAgentConfig).validate(signature);
+        } catch (ValidationException e) {
+            throw new SSOAgentException("Signature validation failed for SAML2 Response", e);
+        }
+    }
+
+    private static SignatureValidator getSignatureValidator(SSOAgentConfig ssoAgentConfig)
+            throws SSOAgentException {
+
+        SSOAgentX509Credential agentCredential = ssoAgentConfig.getSAML2().getSSOAgentX509Credential();
+        if (agentCredential == null) {
+            throw new SSOAgentException("IdP credential is not configured");
+        }
+        X509Certificate certificate = agentCredential.getEntityCertificate();
+        String idpEntityId = String.valueOf(ssoAgentConfig.getSAML2().getIdPEntityId());
+
+        PreparedValidator prepared = VALIDATORS.get(idpEntityId);
+        if (prepared == null || prepared.certificate != certificate) {
+            BasicX509Credential credential = new BasicX509Credential();
+            credential.setEntityCertificate(certificate);
+            credential.setPublicKey(certificate.getPublicKey());
+            prepared = new PreparedValidator(certificate, new SignatureValidator(credential));
+            VALIDATORS.put(idpEntityId, prepared);
+        }
+        return prepared.validator;
+    }
+
+    private static class PreparedValidator {
+
+        private final X509Certificate certificate;
+        private final SignatureValidator validator;
+
+        private PreparedValidator(X509Certificate certificate, SignatureValidator validator) {
+            this.certificate = certificate;
+            this.validator = validator;
+        }
+    }
+}
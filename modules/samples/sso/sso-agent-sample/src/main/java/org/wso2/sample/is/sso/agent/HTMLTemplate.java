@@ -0,0 +1,183 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTML page template compiled once into static segments and <code>${name}</code> placeholders.
+ *
+ * Rendering only appends the static segments and the HTML escaped placeholder values, in placeholder order,
+ * so no parsing or intermediate strings are needed per request. A placeholder used more than once in the
+ * template is listed once and its value is written at every occurrence.
+ */
+public class HTMLTemplate {
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final String PLACEHOLDER_END = "}";
+
+    // segments[i] is written before the value of slots[i], the last segment follows the last placeholder
+    private final String[] segments;
+    private final int[] slots;
+    private final String[] placeholders;
+    private final int staticLength;
+
+    /**
+     * Compile the template
+     * @param template template text with <code>${name}</code> placeholders
+     * @throws IllegalArgumentException if a placeholder is not closed or has no name
+     */
+    public HTMLTemplate(String template) {
+
+        List<String> segmentList = new ArrayList<String>();
+        List<Integer> slotList = new ArrayList<Integer>();
+        List<String> placeholderList = new ArrayList<String>();
+        int length = 0;
+        int position = 0;
+
+        int start;
+        while ((start = template.indexOf(PLACEHOLDER_START, position)) >= 0) {
+            int end = template.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at index " + start);
+            }
+            String name = template.substring(start + PLACEHOLDER_START.length(), end);
+            if (name.length() == 0) {
+                throw new IllegalArgumentException("Placeholder without a name at index " + start);
+            }
+            int slot = placeholderList.indexOf(name);
+            if (slot < 0) {
+                slot = placeholderList.size();
+                placeholderList.add(name);
+            }
+            String segment = template.substring(position, start);
+            segmentList.add(segment);
+            slotList.add(slot);
+            length += segment.length();
+            position = end + PLACEHOLDER_END.length();
+        }
+        String lastSegment = template.substring(position);
+        segmentList.add(lastSegment);
+        length += lastSegment.length();
+
+        this.segments = segmentList.toArray(new String[segmentList.size()]);
+        this.slots = new int[slotList.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i);
+        }
+        this.placeholders = placeholderList.toArray(new String[placeholderList.size()]);
+        this.staticLength = length;
+    }
+
+    /**
+     * @return placeholder names in the order their values are passed to render
+     */
+    public String[] getPlaceholders() {
+        return placeholders.clone();
+    }
+
+    /**
+     * Render the template into a string
+     * @param values placeholder values in the order of {@link #getPlaceholders()}, null renders as empty
+     * @return rendered page
+     */
+    public String render(String... values) {
+
+        checkValues(values);
+        int capacity = staticLength;
+        for (int slot : slots) {
+            if (values[slot] != null) {
+                // room for a few escaped characters without growing the buffer
+                capacity += values[slot].length() + 16;
+            }
+        }
+        StringBuilder builder = new StringBuilder(capacity);
+        try {
+            write(builder, values);
+        } catch (IOException e) {
+            // StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Render the template to a writer, e.g. the response writer
+     * @param writer writer
+     * @param values placeholder values in the order of {@link #getPlaceholders()}, null renders as empty
+     * @throws IOException if writing fails
+     */
+    public void render(Writer writer, String... values) throws IOException {
+
+        checkValues(values);
+        write(writer, values);
+    }
+
+    private void write(Appendable out, String[] values) throws IOException {
+
+        for (int i = 0; i < slots.length; i++) {
+            out.append(segments[i]);
+            escape(values[slots[i]], out);
+        }
+        out.append(segments[segments.length - 1]);
+    }
+
+    private void checkValues(String[] values) {
+        if (values.length != placeholders.length) {
+            throw new IllegalArgumentException("Expected " + placeholders.length + " values but got " +
+                    values.length);
+        }
+    }
+
+    private static void escape(String value, Appendable out) throws IOException {
+
+        if (value == null) {
+            return;
+        }
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String replacement;
+            switch (value.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(value, from, i).append(replacement);
+            from = i + 1;
+        }
+        out.append(value, from, value.length());
+    }
+}
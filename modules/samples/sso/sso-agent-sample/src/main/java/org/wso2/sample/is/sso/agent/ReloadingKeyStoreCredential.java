@@ -0,0 +1,171 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import org.wso2.carbon.identity.sso.agent.SSOAgentException;
+import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509Credential;
+import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509KeyStoreCredential;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Key store credential of the agent, which follows changes of the key store file.
+ *
+ * The key store is parsed when the credential is created, so a wrong location or password fails the deployment of
+ * the webapp rather than its first SSO request. The file is checked for modification at most once per reload
+ * interval and parsed again when it has changed. Key stores which are not plain files, e.g. inside an unexpanded war,
+ * are never reloaded.
+ *
+ * This class is packaged in WEB-INF/classes of the sample war, so each webapp parses its own key store once and
+ * holds one credential.
+ */
+public class ReloadingKeyStoreCredential implements SSOAgentX509Credential {
+
+    private static Logger LOGGER = Logger.getLogger("org.wso2.sample.is.sso.agent");
+
+    /**
+     * System property with the minimum interval in milliseconds between two key store modification checks
+     */
+    public static final String RELOAD_INTERVAL_PROPERTY = "sso.agent.keyStoreReloadIntervalMillis";
+
+    private static final long DEFAULT_RELOAD_INTERVAL = 10000L;
+
+    private static final long RELOAD_INTERVAL = Long.getLong(RELOAD_INTERVAL_PROPERTY, DEFAULT_RELOAD_INTERVAL);
+
+    private final URL location;
+    private final char[] keyStorePassword;
+    private final String publicCertAlias;
+    private final String privateKeyAlias;
+    private final char[] privateKeyPassword;
+
+    private volatile Loaded loaded;
+
+    /**
+     * Parse a key store
+     * @param location key store location
+     * @param keyStorePassword key store password
+     * @param publicCertAlias alias of the IdP's public certificate
+     * @param privateKeyAlias alias of the SP's private key
+     * @param privateKeyPassword private key password
+     * @throws SSOAgentException if the key store can not be read or parsed
+     */
+    public ReloadingKeyStoreCredential(URL location, char[] keyStorePassword, String publicCertAlias,
+                                       String privateKeyAlias, char[] privateKeyPassword) throws SSOAgentException {
+
+        this.location = location;
+        this.keyStorePassword = keyStorePassword.clone();
+        this.publicCertAlias = publicCertAlias;
+        this.privateKeyAlias = privateKeyAlias;
+        this.privateKeyPassword = privateKeyPassword.clone();
+        long now = System.currentTimeMillis();
+        long lastModified = lastModified(location);
+        this.loaded = new Loaded(load(), lastModified, now);
+    }
+
+    public PublicKey getPublicKey() throws SSOAgentException {
+        return current().getPublicKey();
+    }
+
+    public PrivateKey getPrivateKey() throws SSOAgentException {
+        return current().getPrivateKey();
+    }
+
+    public X509Certificate getEntityCertificate() throws SSOAgentException {
+        return current().getEntityCertificate();
+    }
+
+    private SSOAgentX509Credential current() throws SSOAgentException {
+
+        Loaded current = loaded;
+        long now = System.currentTimeMillis();
+        if (now - current.checkedAt < RELOAD_INTERVAL) {
+            return current.credential;
+        }
+
+        synchronized (this) {
+            current = loaded;
+            if (now - current.checkedAt < RELOAD_INTERVAL) {
+                return current.credential;
+            }
+            long lastModified = lastModified(location);
+            if (lastModified < 0 || lastModified == current.lastModified) {
+                loaded = new Loaded(current.credential, current.lastModified, now);
+                return current.credential;
+            }
+            LOGGER.log(Level.INFO, "Reloading modified key store " + location);
+            loaded = new Loaded(load(), lastModified, now);
+            return loaded.credential;
+        }
+    }
+
+    private SSOAgentX509Credential load() throws SSOAgentException {
+
+        InputStream inputStream = null;
+        try {
+            inputStream = location.openStream();
+            return new SSOAgentX509KeyStoreCredential(inputStream, keyStorePassword, publicCertAlias,
+                    privateKeyAlias, privateKeyPassword);
+        } catch (IOException e) {
+            throw new SSOAgentException("Error while reading key store " + location, e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Error while closing key store " + location, e);
+                }
+            }
+        }
+    }
+
+    private static long lastModified(URL location) {
+        if ("file".equals(location.getProtocol())) {
+            try {
+                return new File(location.toURI()).lastModified();
+            } catch (URISyntaxException e) {
+                return -1;
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static class Loaded {
+
+        private final SSOAgentX509Credential credential;
+        private final long lastModified;
+        private final long checkedAt;
+
+        private Loaded(SSOAgentX509Credential credential, long lastModified, long checkedAt) {
+            this.credential = credential;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
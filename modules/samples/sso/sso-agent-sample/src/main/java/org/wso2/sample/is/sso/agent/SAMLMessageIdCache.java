@@ -0,0 +1,282 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of consumed SAML message IDs (assertion, response and InResponseTo IDs) used to detect replays.
+ *
+ * An ID is kept until the NotOnOrAfter time of its message plus the allowed clock skew, or for the default time to
+ * live if the message has no NotOnOrAfter. IDs are held in a concurrent map for O(1) insert and lookup and are also
+ * queued in a ring of time buckets by expiry, so expired IDs are dropped a whole bucket at a time by whichever thread
+ * first sees the clock pass a bucket, without a global lock. IDs expiring beyond the span of the ring are queued
+ * again each time their bucket is swept. When the cache is full the bucket expiring next is dropped early and
+ * counted as a forced eviction, which reopens the replay window for those IDs.
+ *
+ * A message is checked with {@link #begin(String)} before it is validated and recorded with
+ * {@link #end(String, long, boolean)} once the validation is over, so only messages that were accepted take up
+ * room in the cache, while a second copy arriving during the validation is still rejected.
+ */
+public class SAMLMessageIdCache {
+
+    // rough heap cost of one entry apart from the ID characters: map entry, boxed expiry, queue node, strings
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final ConcurrentMap<String, Long> expiries;
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+    private final ConcurrentLinkedQueue<String>[] buckets;
+    private final long bucketMillis;
+    private final long defaultTimeToLiveMillis;
+    private final long clockSkewMillis;
+    private final int maxEntries;
+
+    // number of the last time bucket whose expired IDs have been dropped
+    private final AtomicLong sweptSlot;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong idCharacters = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong forcedEvictionCount = new AtomicLong();
+    private final AtomicLong replayCount = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of cached IDs
+     * @param defaultTimeToLiveMillis time an ID is kept if its message has no NotOnOrAfter
+     * @param clockSkewMillis allowed clock skew added to NotOnOrAfter
+     * @param bucketMillis width of the expiry buckets, i.e. the precision of expiry
+     */
+    @SuppressWarnings("unchecked")
+    public SAMLMessageIdCache(int maxEntries, long defaultTimeToLiveMillis, long clockSkewMillis, long bucketMillis) {
+
+        if (maxEntries <= 0 || defaultTimeToLiveMillis <= 0 || clockSkewMillis < 0 || bucketMillis <= 0) {
+            throw new IllegalArgumentException("Invalid SAML message ID cache settings");
+        }
+        this.maxEntries = maxEntries;
+        this.defaultTimeToLiveMillis = defaultTimeToLiveMillis;
+        this.clockSkewMillis = clockSkewMillis;
+        this.bucketMillis = bucketMillis;
+        // two spare buckets, so a bucket still holding live IDs is never reused before it is swept
+        int bucketCount = (int) ((defaultTimeToLiveMillis + bucketMillis - 1) / bucketMillis) + 2;
+        this.buckets = new ConcurrentLinkedQueue[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<String>();
+        }
+        this.expiries = new ConcurrentHashMap<String, Long>(Math.min(maxEntries, 1 << 16) * 4 / 3 + 1, 0.75f,
+                Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+        this.sweptSlot = new AtomicLong(System.currentTimeMillis() / bucketMillis);
+    }
+
+    /**
+     * Start consuming an ID, before its message is validated
+     * @param id message ID
+     * @return false if the ID has already been consumed or another copy of its message is being validated
+     */
+    public boolean begin(String id) {
+
+        // reserved before the consumed check: end() records the ID before it drops the reservation, so an ID is
+        // either still reserved or already seen as consumed here
+        if (pending.putIfAbsent(id, Boolean.TRUE) != null) {
+            replayCount.incrementAndGet();
+            return false;
+        }
+        if (isConsumed(id)) {
+            pending.remove(id);
+            replayCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finish consuming an ID started with {@link #begin(String)}
+     * @param id message ID
+     * @param notOnOrAfter NotOnOrAfter time of the message in milliseconds, or a value &lt;= 0 if unknown
+     * @param accepted true if the message was accepted, in which case the ID is recorded as consumed
+     * @return false if the accepted message turned out to be a replay, as its ID had been recorded as consumed in
+     * the meantime
+     */
+    public boolean end(String id, long notOnOrAfter, boolean accepted) {
+
+        try {
+            return !accepted || markConsumed(id, notOnOrAfter);
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Record an ID as consumed
+     * @param id message ID
+     * @param notOnOrAfter NotOnOrAfter time of the message in milliseconds, or a value &lt;= 0 if unknown
+     * @return false if the ID has already been consumed and has not expired, i.e. the message is a replay
+     */
+    public boolean markConsumed(String id, long notOnOrAfter) {
+
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        long expiry = now + defaultTimeToLiveMillis;
+        if (notOnOrAfter > 0) {
+            expiry = Math.max(notOnOrAfter + clockSkewMillis, now);
+        }
+
+        Long existing = expiries.putIfAbsent(id, expiry);
+        if (existing != null) {
+            if (existing > now || !expiries.replace(id, existing, expiry)) {
+                replayCount.incrementAndGet();
+                return false;
+            }
+            // expired ID not swept yet, it is queued again when its old bucket is swept
+            return true;
+        }
+
+        bucket(expiry / bucketMillis).add(id);
+        idCharacters.addAndGet(id.length());
+        if (size.incrementAndGet() > maxEntries) {
+            evict(now);
+        }
+        return true;
+    }
+
+    /**
+     * @param id message ID
+     * @return true if the ID has been consumed and has not expired
+     */
+    public boolean isConsumed(String id) {
+        Long expiry = expiries.get(id);
+        return expiry != null && expiry > System.currentTimeMillis();
+    }
+
+    /**
+     * @return number of cached IDs, including expired IDs not dropped yet
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return estimated heap used by the cached IDs in bytes
+     */
+    public long getEstimatedMemoryBytes() {
+        return (long) size.get() * ENTRY_OVERHEAD_BYTES + idCharacters.get() * 2;
+    }
+
+    /**
+     * @return number of IDs dropped after they expired
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return number of IDs dropped before they expired because the cache was full
+     */
+    public long getForcedEvictionCount() {
+        return forcedEvictionCount.get();
+    }
+
+    /**
+     * @return number of rejected replays
+     */
+    public long getReplayCount() {
+        return replayCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SAMLMessageIdCache{size=" + getSize() + ", estimatedMemoryBytes=" + getEstimatedMemoryBytes() +
+                ", expired=" + getExpiredCount() + ", forcedEvictions=" + getForcedEvictionCount() +
+                ", replays=" + getReplayCount() + "}";
+    }
+
+    private ConcurrentLinkedQueue<String> bucket(long slot) {
+        return buckets[(int) (slot % buckets.length)];
+    }
+
+    /**
+     * Drop the IDs of the buckets the clock has passed. Only the thread advancing the swept slot does the work.
+     */
+    private void sweep(long now) {
+
+        long currentSlot = now / bucketMillis;
+        long swept = sweptSlot.get();
+        if (currentSlot <= swept || !sweptSlot.compareAndSet(swept, currentSlot)) {
+            return;
+        }
+        // the bucket of the current slot may still hold IDs expiring later in this slot
+        long from = Math.max(swept, currentSlot - buckets.length);
+        for (long slot = from; slot < currentSlot; slot++) {
+            drain(bucket(slot), now, false);
+        }
+    }
+
+    /**
+     * Drop the bucket expiring next, to bring the cache back below its limit
+     */
+    private void evict(long now) {
+
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long slot = now / bucketMillis;
+            for (int i = 0; i < buckets.length && size.get() > maxEntries; i++) {
+                drain(bucket(slot + i), now, true);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void drain(ConcurrentLinkedQueue<String> bucket, long now, boolean force) {
+
+        List<String> ids = new ArrayList<String>();
+        String id;
+        while ((id = bucket.poll()) != null) {
+            ids.add(id);
+        }
+        for (String queuedId : ids) {
+            Long expiry = expiries.get(queuedId);
+            if (expiry == null) {
+                continue;
+            }
+            if (expiry > now && !force) {
+                // re-marked after expiry, or queued in this bucket by a later time slot
+                bucket(expiry / bucketMillis).add(queuedId);
+            } else if (expiries.remove(queuedId, expiry)) {
+                size.decrementAndGet();
+                idCharacters.addAndGet(-queuedId.length());
+                if (expiry > now) {
+                    forcedEvictionCount.incrementAndGet();
+                } else {
+                    expiredCount.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IDs and validity of a SAML 2.0 response, read with a single streaming pass over the response XML.
+ *
+ * Only the values needed for replay detection are read: the response ID, its InResponseTo, the IDs of the
+ * plain assertions and the latest NotOnOrAfter of their conditions and subject confirmations. Encrypted
+ * assertions are skipped. The values are not validated; that is left to the agent.
+ */
+public class SAMLResponseIds {
+
+    private static final String PROTOCOL_NS = "urn:oasis:names:tc:SAML:2.0:protocol";
+    private static final String ASSERTION_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    private String responseId;
+    private String inResponseTo;
+    private List<String> assertionIds = Collections.emptyList();
+    private long notOnOrAfter = -1;
+
+    private SAMLResponseIds() {
+    }
+
+    /**
+     * Read the IDs of a response
+     * @param responseXML response XML
+     * @return IDs of the response, or null if it is not a SAML 2.0 response
+     * @throws XMLStreamException if the response is not well formed
+     */
+    public static SAMLResponseIds parse(byte[] responseXML) throws XMLStreamException {
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(responseXML));
+        try {
+            SAMLResponseIds ids = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String namespace = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (ids == null) {
+                    // the root element must be the response
+                    if (!PROTOCOL_NS.equals(namespace) || !"Response".equals(name)) {
+                        return null;
+                    }
+                    ids = new SAMLResponseIds();
+                    ids.responseId = reader.getAttributeValue(null, "ID");
+                    ids.inResponseTo = reader.getAttributeValue(null, "InResponseTo");
+                } else if (ASSERTION_NS.equals(namespace)) {
+                    if ("Assertion".equals(name)) {
+                        String assertionId = reader.getAttributeValue(null, "ID");
+                        if (assertionId != null) {
+                            if (ids.assertionIds.isEmpty()) {
+                                ids.assertionIds = new ArrayList<String>(1);
+                            }
+                            ids.assertionIds.add(assertionId);
+                        }
+                    } else if ("Conditions".equals(name) || "SubjectConfirmationData".equals(name)) {
+                        ids.updateNotOnOrAfter(reader.getAttributeValue(null, "NotOnOrAfter"));
+                    } else if ("EncryptedAssertion".equals(name)) {
+                        skipElement(reader);
+                    }
+                }
+            }
+            return ids;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private void updateNotOnOrAfter(String dateTime) {
+        if (dateTime == null) {
+            return;
+        }
+        try {
+            notOnOrAfter = Math.max(notOnOrAfter, DatatypeConverter.parseDateTime(dateTime).getTimeInMillis());
+        } catch (IllegalArgumentException e) {
+            // left to the agent to reject
+        }
+    }
+
+    public String getResponseId() {
+        return responseId;
+    }
+
+    public String getInResponseTo() {
+        return inResponseTo;
+    }
+
+    public List<String> getAssertionIds() {
+        return assertionIds;
+    }
+
+    /**
+     * @return latest NotOnOrAfter time of the assertions in milliseconds, or -1 if there is none
+     */
+    public long getNotOnOrAfter() {
+        return notOnOrAfter;
+    }
+}
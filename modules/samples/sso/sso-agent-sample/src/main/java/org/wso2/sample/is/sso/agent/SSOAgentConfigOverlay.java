@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Builds the agent configuration of a single request on top of the shared configuration of the webapp.
+ *
+ * The shared configuration is created once at startup and never modified. For each request a new SSOAgentConfig
+ * is filled from it through the public accessors, with the request specific values replaced. Nothing is parsed;
+ * the collections are copied, so a change made to them while handling a request stays with that request, and
+ * the remaining values are immutable or, like the credential and the attributes requestor, shared by design.
+ * The overlay is handed to the agent as a request attribute and dropped with the request.
+ *
+ * Values added to SSOAgentConfig by a newer agent have to be added to the copy below.
+ */
+public class SSOAgentConfigOverlay {
+
+    private SSOAgentConfigOverlay() {
+    }
+
+    /**
+     * Create the configuration of a request
+     * @param shared shared configuration of the webapp, which is not modified
+     * @param httpBinding SAML2 HTTP binding of the request
+     * @param postBindingRequestHTMLPayload POST binding page of the request, or null for the default page
+     * @param claimedId OpenID claimed id of the request
+     * @param mode OpenID mode of the request
+     * @return configuration of the request
+     */
+    public static SSOAgentConfig create(SSOAgentConfig shared, String httpBinding,
+                                        String postBindingRequestHTMLPayload, String claimedId, String mode) {
+
+        SSOAgentConfig overlay = new SSOAgentConfig();
+        overlay.setSAML2SSOLoginEnabled(shared.isSAML2SSOLoginEnabled());
+        overlay.setOpenIdLoginEnabled(shared.isOpenIdLoginEnabled());
+        overlay.setOAuth2SAML2GrantEnabled(shared.isOAuth2SAML2GrantEnabled());
+        overlay.setSAML2SSOURL(shared.getSAML2SSOURL());
+        overlay.setOpenIdURL(shared.getOpenIdURL());
+        overlay.setOAuth2SAML2GrantURL(shared.getOAuth2SAML2GrantURL());
+        if (shared.getSkipURIs() != null) {
+            overlay.setSkipURIs(new HashSet<String>(shared.getSkipURIs()));
+        }
+        if (shared.getQueryParams() != null) {
+            overlay.setQueryParams(copyQueryParams(shared.getQueryParams()));
+        }
+        copySAML2(shared.getSAML2(), overlay.getSAML2());
+        copyOpenID(shared.getOpenId(), overlay.getOpenId());
+        copyOAuth2(shared.getOAuth2(), overlay.getOAuth2());
+
+        overlay.getSAML2().setHttpBinding(httpBinding);
+        overlay.getSAML2().setPostBindingRequestHTMLPayload(postBindingRequestHTMLPayload);
+        overlay.getOpenId().setClaimedId(claimedId);
+        overlay.getOpenId().setMode(mode);
+        return overlay;
+    }
+
+    private static void copySAML2(SSOAgentConfig.SAML2 from, SSOAgentConfig.SAML2 to) {
+        to.setHttpBinding(from.getHttpBinding());
+        to.setSPEntityId(from.getSPEntityId());
+        to.setACSURL(from.getACSURL());
+        to.setIdPEntityId(from.getIdPEntityId());
+        to.setIdPURL(from.getIdPURL());
+        to.setSLOEnabled(from.isSLOEnabled());
+        to.setSLOURL(from.getSLOURL());
+        to.setAttributeConsumingServiceIndex(from.getAttributeConsumingServiceIndex());
+        to.setSSOAgentX509Credential(from.getSSOAgentX509Credential());
+        to.setAssertionSigned(from.isAssertionSigned());
+        to.setAssertionEncrypted(from.isAssertionEncrypted());
+        to.setResponseSigned(from.isResponseSigned());
+        to.setRequestSigned(from.isRequestSigned());
+        to.setPassiveAuthn(from.isPassiveAuthn());
+        to.setForceAuthn(from.isForceAuthn());
+        to.setRelayState(from.getRelayState());
+        to.setSignatureValidatorImplClass(from.getSignatureValidatorImplClass());
+        to.setPostBindingRequestHTMLPayload(from.getPostBindingRequestHTMLPayload());
+    }
+
+    private static void copyOpenID(SSOAgentConfig.OpenID from, SSOAgentConfig.OpenID to) {
+        to.setMode(from.getMode());
+        to.setProviderURL(from.getProviderURL());
+        to.setReturnToURL(from.getReturnToURL());
+        to.setClaimedId(from.getClaimedId());
+        to.setAttributesRequestor(from.getAttributesRequestor());
+        to.setAttributeExchangeEnabled(from.isAttributeExchangeEnabled());
+        to.setDumbModeEnabled(from.isDumbModeEnabled());
+    }
+
+    private static void copyOAuth2(SSOAgentConfig.OAuth2 from, SSOAgentConfig.OAuth2 to) {
+        to.setTokenURL(from.getTokenURL());
+        to.setClientId(from.getClientId());
+        to.setClientSecret(from.getClientSecret());
+    }
+
+    private static Map<String, String[]> copyQueryParams(Map<String, String[]> queryParams) {
+        Map<String, String[]> copy = new HashMap<String, String[]>(queryParams.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String[]> entry : queryParams.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue() != null ? entry.getValue().clone() : null);
+        }
+        return copy;
+    }
+}
@@ -21,11 +21,18 @@ package org.wso2.sample.is.sso.agent;
 import org.apache.axiom.om.util.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.wso2.carbon.identity.sso.agent.SSOAgentConstants;
+import org.wso2.carbon.identity.sso.agent.SSOAgentException;
 import org.wso2.carbon.identity.sso.agent.SSOAgentFilter;
+import org.wso2.carbon.identity.sso.agent.bean.LoggedInSessionBean;
 import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
 
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,11 +44,43 @@ public class SSOAgentSampleFilter extends SSOAgentFilter {
     private static final String USERNAME = "username";
     private static final String PASSWORD = "password";
     private static final String CHARACTER_ENCODING = "UTF-8";
-    private static Properties properties;
     protected FilterConfig filterConfig = null;
 
+    /**
+     * Auto submit page posting the credentials to the IdP. The agent replaces the saml_params comment with the
+     * SAML request fields.
+     */
+    private static final HTMLTemplate POST_BINDING_TEMPLATE = new HTMLTemplate("<html>\n" +
+            "<body>\n" +
+            "<p>You are now redirected back to ${idp_url} \n" +
+            "If the redirection fails, please click the post button.</p>\n" +
+            "<form method='post' action='${idp_url}'>\n" +
+            "<input type='hidden' name='sectoken' value='${sectoken}'/>\n" +
+            "<p>\n" +
+            "<!--$saml_params-->\n" +
+            "<button type='submit'>POST</button>\n" +
+            "</p>\n" +
+            "</form>\n" +
+            "<script type='text/javascript'>\n" +
+            "document.forms[0].submit();\n" +
+            "</script>\n" +
+            "</body>\n" +
+            "</html>");
+
+    private static final String SAML_RESPONSE = "SAMLResponse";
+
+    private static Properties properties;
+    private static String idpURL;
+    private static SAMLMessageIdCache messageIdCache;
+
     static{
         properties = SampleContextEventListener.getProperties();
+        idpURL = properties.getProperty("SAML2.IdPURL");
+        messageIdCache = new SAMLMessageIdCache(
+                Integer.parseInt(properties.getProperty("SAML2.ReplayCache.MaxEntries", "100000")),
+                Long.parseLong(properties.getProperty("SAML2.ReplayCache.DefaultTimeToLive", "300000")),
+                Long.parseLong(properties.getProperty("SAML2.ReplayCache.ClockSkew", "60000")),
+                1000L);
     }
 
     @Override
@@ -53,6 +92,29 @@ public class SSOAgentSampleFilter extends SSOAgentFilter {
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
                          FilterChain filterChain) throws IOException, ServletException {
 
+        String samlResponse = servletRequest.getParameter(SAML_RESPONSE);
+        SAMLResponseIds responseIds = samlResponse != null ? readResponseIds(samlResponse) : null;
+        List<String> messageIds = null;
+        Object sessionBean = null;
+        if (responseIds != null) {
+            messageIds = beginConsume(responseIds);
+            if (messageIds == null) {
+                throw new ServletException(new SSOAgentException("Replayed SAML response"));
+            }
+            sessionBean = getSessionBean(servletRequest);
+        }
+        try {
+            doFilterRequest(servletRequest, servletResponse, filterChain);
+        } finally {
+            if (messageIds != null) {
+                endConsume(servletRequest, responseIds, messageIds, sessionBean);
+            }
+        }
+    }
+
+    private void doFilterRequest(ServletRequest servletRequest, ServletResponse servletResponse,
+                                 FilterChain filterChain) throws IOException, ServletException {
+
         String httpBinding = servletRequest.getParameter(
                 SSOAgentConstants.SSOAgentConfig.SAML2.HTTP_BINDING);
         if(httpBinding != null && !httpBinding.isEmpty()){
@@ -68,41 +130,20 @@ public class SSOAgentSampleFilter extends SSOAgentFilter {
             LOGGER.log(Level.INFO, "SAML2 HTTP Binding not found in request. Defaulting to HTTP-POST");
             httpBinding = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST";
         }
-        SSOAgentConfig config = (SSOAgentConfig)filterConfig.getServletContext().
-                getAttribute(SSOAgentConstants.CONFIG_BEAN_NAME);
-        config.getSAML2().setHttpBinding(httpBinding);
-        config.getOpenId().setClaimedId(servletRequest.getParameter(
-                SSOAgentConstants.SSOAgentConfig.OpenID.CLAIMED_ID));
-        config.getOpenId().setMode(servletRequest.getParameter(
-                SSOAgentConstants.OpenID.OPENID_MODE));
-
+        String htmlPayload = null;
         if (StringUtils.isNotEmpty(servletRequest.getParameter(USERNAME)) &&
                 StringUtils.isNotEmpty(servletRequest.getParameter(PASSWORD))) {
 
             String authorization = servletRequest.getParameter(USERNAME) + ":" + servletRequest.getParameter(PASSWORD);
             // Base64 encoded username:password value
             authorization = new String(Base64.encode(authorization.getBytes(CHARACTER_ENCODING)));
-            String htmlPayload = "<html>\n" +
-                    "<body>\n" +
-                    "<p>You are now redirected back to " + properties.getProperty("SAML2.IdPURL") + " \n" +
-                    "If the redirection fails, please click the post button.</p>\n" +
-                    "<form method='post' action='" +  properties.getProperty("SAML2.IdPURL") + "'>\n" +
-                    "<input type='hidden' name='sectoken' value='" + authorization + "'/>\n" +
-                    "<p>\n" +
-                    "<!--$saml_params-->\n" +
-                    "<button type='submit'>POST</button>\n" +
-                    "</p>\n" +
-                    "</form>\n" +
-                    "<script type='text/javascript'>\n" +
-                    "document.forms[0].submit();\n" +
-                    "</script>\n" +
-                    "</body>\n" +
-                    "</html>";
-            config.getSAML2().setPostBindingRequestHTMLPayload(htmlPayload);
-        } else {
-            // Reset previously sent HTML payload
-            config.getSAML2().setPostBindingRequestHTMLPayload(null);
+            htmlPayload = POST_BINDING_TEMPLATE.render(idpURL, authorization);
         }
+
+        // the shared configuration is never modified, the request gets an overlay holding its own values
+        SSOAgentConfig config = SSOAgentConfigOverlay.create(getSharedConfig(), httpBinding, htmlPayload,
+                servletRequest.getParameter(SSOAgentConstants.SSOAgentConfig.OpenID.CLAIMED_ID),
+                servletRequest.getParameter(SSOAgentConstants.OpenID.OPENID_MODE));
         servletRequest.setAttribute(SSOAgentConstants.CONFIG_BEAN_NAME,config);
         super.doFilter(servletRequest, servletResponse, filterChain);
     }
@@ -111,4 +152,124 @@ public class SSOAgentSampleFilter extends SSOAgentFilter {
     public void destroy() {
 
     }
+
+    /**
+     * Get the cache of consumed SAML message IDs, e.g. to monitor its size and evictions
+     * @return SAMLMessageIdCache
+     */
+    public static SAMLMessageIdCache getMessageIdCache() {
+        return messageIdCache;
+    }
+
+    /**
+     * Read the IDs of a POST binding SAML response
+     * @param samlResponse base64 encoded response
+     * @return IDs of the response, or null if it is not a well formed SAML response
+     */
+    private SAMLResponseIds readResponseIds(String samlResponse) {
+        try {
+            return SAMLResponseIds.parse(Base64.decode(samlResponse));
+        } catch (XMLStreamException e) {
+            // malformed responses are rejected by the agent
+            LOGGER.log(Level.FINE, "Error while reading SAML response IDs", e);
+            return null;
+        }
+    }
+
+    /**
+     * Start consuming the IDs of a response before the agent validates it
+     * @param ids IDs of the response
+     * @return the cache keys of the IDs, or null if the response, one of its assertions or the request it responds
+     * to has been consumed before or is being validated for another request
+     */
+    private List<String> beginConsume(SAMLResponseIds ids) {
+
+        List<String> keys = new ArrayList<String>(ids.getAssertionIds().size() + 2);
+        for (String assertionId : ids.getAssertionIds()) {
+            keys.add("assertion:" + assertionId);
+        }
+        if (ids.getResponseId() != null) {
+            keys.add("response:" + ids.getResponseId());
+        }
+        if (ids.getInResponseTo() != null) {
+            keys.add("request:" + ids.getInResponseTo());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            if (!messageIdCache.begin(keys.get(i))) {
+                LOGGER.log(Level.WARNING, "Replayed SAML message " + keys.get(i));
+                for (int j = 0; j < i; j++) {
+                    messageIdCache.end(keys.get(j), -1, false);
+                }
+                return null;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Record the IDs of a response once the agent has processed it. The IDs are recorded only if the agent accepted
+     * the response and logged the user in; if one of them was recorded in the meantime the response is a replay and
+     * the login is undone.
+     * @param servletRequest request carrying the response
+     * @param ids IDs of the response
+     * @param keys cache keys returned by {@link #beginConsume(SAMLResponseIds)}
+     * @param sessionBean session bean before the response was processed
+     * @throws ServletException if the response is a replay
+     */
+    private void endConsume(ServletRequest servletRequest, SAMLResponseIds ids, List<String> keys,
+                            Object sessionBean) throws ServletException {
+
+        boolean accepted = isLoggedIn(servletRequest, sessionBean);
+        boolean replayed = false;
+        for (String key : keys) {
+            if (!messageIdCache.end(key, ids.getNotOnOrAfter(), accepted)) {
+                LOGGER.log(Level.WARNING, "Replayed SAML message " + key);
+                replayed = true;
+            }
+        }
+        if (replayed) {
+            HttpSession session = ((HttpServletRequest) servletRequest).getSession(false);
+            if (session != null) {
+                session.invalidate();
+            }
+            throw new ServletException(new SSOAgentException("Replayed SAML response"));
+        }
+    }
+
+    private static Object getSessionBean(ServletRequest servletRequest) {
+        HttpSession session = ((HttpServletRequest) servletRequest).getSession(false);
+        return session != null ? session.getAttribute(SSOAgentConstants.SESSION_BEAN_NAME) : null;
+    }
+
+    /**
+     * The agent stores a new session bean holding the SAML2 SSO session once it has accepted a response
+     * @param servletRequest request carrying the response
+     * @param sessionBean session bean before the response was processed
+     * @return true if a new SAML2 SSO session bean has been stored
+     */
+    private static boolean isLoggedIn(ServletRequest servletRequest, Object sessionBean) {
+        Object current;
+        try {
+            current = getSessionBean(servletRequest);
+        } catch (IllegalStateException e) {
+            // invalidated after a rejected response
+            return false;
+        }
+        return current instanceof LoggedInSessionBean && current != sessionBean &&
+                ((LoggedInSessionBean) current).getSAML2SSO() != null;
+    }
+
+    /**
+     * Get the configuration of the webapp, created by SampleContextEventListener at startup
+     * @return SSOAgentConfig
+     * @throws ServletException if the configuration has not been created
+     */
+    private SSOAgentConfig getSharedConfig() throws ServletException {
+        SSOAgentConfig config = (SSOAgentConfig) filterConfig.getServletContext().
+                getAttribute(SSOAgentConstants.CONFIG_BEAN_NAME);
+        if (config == null) {
+            throw new ServletException(new SSOAgentException("SSO agent configuration has not been created"));
+        }
+        return config;
+    }
 }
@@ -20,52 +20,132 @@ package org.wso2.sample.is.sso.agent;
 
 import org.wso2.carbon.identity.sso.agent.openid.AttributesRequestor;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Requests the OpenID attributes listed in the attributes file of the sample.
+ *
+ * The file is read once, into a table shared by all requestor instances, and is not modified afterwards. The
+ * file is named by the OpenId.AttributesFile property of the sample and defaults to openid-attributes.properties
+ * in the classpath.
+ */
 public class SampleAttributesRequestor implements AttributesRequestor {
 
-    List<String> requestedAttributes = new ArrayList<String>();
-    Map<String, Boolean> requiredMap = new HashMap<String, Boolean>();
-    Map<String, String> typeURIMap = new HashMap<String, String>();
-    Map<String, Integer> countMap = new HashMap<String, Integer>();
+    private static Logger LOGGER = Logger.getLogger("org.wso2.sample.is.sso.agent");
+
+    private static final String ATTRIBUTES_FILE = "OpenId.AttributesFile";
+    private static final String DEFAULT_ATTRIBUTES_FILE = "openid-attributes.properties";
+
+    private static final AttributeTable ATTRIBUTES = AttributeTable.load();
 
     public void init() {
-        requestedAttributes.add("nickname");
-        requiredMap.put("nickname", true);
-        typeURIMap.put("nickname","http://axschema.org/namePerson/first");
-        countMap.put("nickname",1);
-        requestedAttributes.add("lastname");
-        requiredMap.put("lastname", true);
-        typeURIMap.put("lastname","http://axschema.org/namePerson/last");
-        countMap.put("lastname",1);
-        requestedAttributes.add("email");
-        requiredMap.put("email", true);
-        typeURIMap.put("email","http://axschema.org/contact/email");
-        countMap.put("email",0);
-        requestedAttributes.add("country");
-        requiredMap.put("country", true);
-        typeURIMap.put("country","http://axschema.org/contact/country/home");
-        countMap.put("country",1);
-        requestedAttributes.add("dob");
-        requiredMap.put("dob", true);
-        typeURIMap.put("dob","http://axschema.org/birthDate");
-        countMap.put("dob",1);
+        // the attribute table is loaded with the class
     }
 
+    /**
+     * @return aliases of the requested attributes, shared by all requests and must not be modified
+     */
     public String[] getRequestedAttributes(String s) {
-        String[] attrArray = new String[requestedAttributes.size()];
-        return requestedAttributes.toArray(attrArray);
+        return ATTRIBUTES.aliases;
     }
 
     public boolean isRequired(String s, String s2) {
-        return requiredMap.get(s2);
+        Attribute attribute = ATTRIBUTES.attributes.get(s2);
+        return attribute != null && attribute.required;
     }
 
     public String getTypeURI(String s, String s2) {
-        return typeURIMap.get(s2);
+        Attribute attribute = ATTRIBUTES.attributes.get(s2);
+        return attribute == null ? null : attribute.typeURI;
     }
 
     public int getCount(String s, String s2) {
-        return countMap.get(s2);
+        Attribute attribute = ATTRIBUTES.attributes.get(s2);
+        return attribute == null ? 0 : attribute.count;
+    }
+
+    private static class Attribute {
+
+        private final String typeURI;
+        private final boolean required;
+        private final int count;
+
+        private Attribute(String typeURI, boolean required, int count) {
+            this.typeURI = typeURI;
+            this.required = required;
+            this.count = count;
+        }
+    }
+
+    private static class AttributeTable {
+
+        private final String[] aliases;
+        private final Map<String, Attribute> attributes;
+
+        private AttributeTable(String[] aliases, Map<String, Attribute> attributes) {
+            this.aliases = aliases;
+            this.attributes = attributes;
+        }
+
+        private static AttributeTable load() {
+
+            Properties sampleProperties = SampleContextEventListener.getProperties();
+            String file = sampleProperties == null ? null : sampleProperties.getProperty(ATTRIBUTES_FILE);
+            Properties properties = new Properties();
+            InputStream inputStream = null;
+            try {
+                if (file != null) {
+                    inputStream = new FileInputStream(file);
+                } else {
+                    inputStream = SampleAttributesRequestor.class.getClassLoader().
+                            getResourceAsStream(DEFAULT_ATTRIBUTES_FILE);
+                    if (inputStream == null) {
+                        throw new IOException(DEFAULT_ATTRIBUTES_FILE + " not found in the classpath");
+                    }
+                }
+                properties.load(inputStream);
+                return parse(properties);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error while loading OpenID attributes. No attributes are requested", e);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.SEVERE, "Invalid OpenID attributes. No attributes are requested", e);
+            } finally {
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, e.getMessage(), e);
+                    }
+                }
+            }
+            return new AttributeTable(new String[0], Collections.<String, Attribute>emptyMap());
+        }
+
+        private static AttributeTable parse(Properties properties) {
+
+            List<String> aliases = new ArrayList<String>();
+            Map<String, Attribute> attributes = new HashMap<String, Attribute>();
+            for (String alias : properties.getProperty("Attributes", "").split(",")) {
+                alias = alias.trim();
+                if (alias.length() == 0 || attributes.containsKey(alias)) {
+                    continue;
+                }
+                String typeURI = properties.getProperty(alias + ".TypeURI");
+                if (typeURI == null) {
+                    throw new IllegalArgumentException("TypeURI of attribute " + alias + " is not defined");
+                }
+                boolean required = Boolean.parseBoolean(properties.getProperty(alias + ".Required", "true"));
+                int count = Integer.parseInt(properties.getProperty(alias + ".Count", "1").trim());
+                aliases.add(alias);
+                attributes.put(alias, new Attribute(typeURI.trim(), required, count));
+            }
+            return new AttributeTable(aliases.toArray(new String[aliases.size()]),
+                    Collections.unmodifiableMap(attributes));
+        }
     }
 }
@@ -21,12 +21,14 @@ import org.wso2.carbon.identity.sso.agent.SSOAgentConstants;
 import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
 import org.wso2.carbon.identity.sso.agent.SSOAgentException;
 import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509Credential;
-import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509KeyStoreCredential;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URL;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,8 +37,12 @@ public class SampleContextEventListener implements ServletContextListener {
 
     private static Logger LOGGER = Logger.getLogger("org.wso2.sample.is.sso.agent");
 
+    private static final String KEY_STORE_PATH = "/WEB-INF/classes/wso2carbon.jks";
+
     private static Properties properties;
 
+    private static SSOAgentX509Credential credential;
+
     public void contextInitialized(ServletContextEvent servletContextEvent) {
 
         properties = new Properties();
@@ -48,24 +54,21 @@ public class SampleContextEventListener implements ServletContextListener {
                 properties.load(servletContextEvent.getServletContext().
                         getResourceAsStream("/WEB-INF/classes/avis.properties"));
             }
-            InputStream keyStoreInputStream = servletContextEvent.getServletContext().
-                    getResourceAsStream("WEB-INF/classes/wso2carbon.jks");
-            SSOAgentX509Credential credential =
-                    new SSOAgentX509KeyStoreCredential(keyStoreInputStream,
-                            properties.getProperty("KeyStorePassword").toCharArray(),
-                            properties.getProperty("IdPPublicCertAlias"),
-                            properties.getProperty("PrivateKeyAlias"),
-                            properties.getProperty("PrivateKeyPassword").toCharArray());
-            SSOAgentConfig config = new SSOAgentConfig();
-            config.initConfig(properties);
-            config.getSAML2().setSSOAgentX509Credential(credential);
-            config.getOpenId().setAttributesRequestor(new SampleAttributesRequestor());
+            credential = new ReloadingKeyStoreCredential(
+                    getKeyStoreLocation(servletContextEvent.getServletContext()),
+                    properties.getProperty("KeyStorePassword").toCharArray(),
+                    properties.getProperty("IdPPublicCertAlias"),
+                    properties.getProperty("PrivateKeyAlias"),
+                    properties.getProperty("PrivateKeyPassword").toCharArray());
             servletContextEvent.getServletContext().
-                    setAttribute(SSOAgentConstants.CONFIG_BEAN_NAME, config);
+                    setAttribute(SSOAgentConstants.CONFIG_BEAN_NAME, newSSOAgentConfig());
         } catch (IOException e){
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            // fail the deployment rather than the first SSO request
+            throw new IllegalStateException("SSO agent sample can not be initialized", e);
         } catch (SSOAgentException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            throw new IllegalStateException("SSO agent sample can not be initialized", e);
         }
     }
 
@@ -73,6 +76,24 @@ public class SampleContextEventListener implements ServletContextListener {
 
     }
 
+    /**
+     * Get the key store location, as a file when the webapp is expanded so that key store changes are picked up
+     * @param servletContext servlet context of the webapp
+     * @return key store location
+     * @throws IOException if the key store is not found
+     */
+    private static URL getKeyStoreLocation(ServletContext servletContext) throws IOException {
+        String path = servletContext.getRealPath(KEY_STORE_PATH);
+        if (path != null && new File(path).isFile()) {
+            return new File(path).toURI().toURL();
+        }
+        URL location = servletContext.getResource(KEY_STORE_PATH);
+        if (location == null) {
+            throw new FileNotFoundException("Key store not found at " + KEY_STORE_PATH);
+        }
+        return location;
+    }
+
     /**
      * Get the properties of the sample
      * @return Properties
@@ -80,4 +101,19 @@ public class SampleContextEventListener implements ServletContextListener {
     public static Properties getProperties(){
         return properties;
     }
+
+    /**
+     * Create the agent configuration of the webapp from the properties and credential of the sample.
+     * The configuration is stored in the servlet context, shared by all requests and must not be modified,
+     * see SSOAgentConfigOverlay
+     * @return SSOAgentConfig
+     * @throws SSOAgentException if the properties are invalid
+     */
+    private static SSOAgentConfig newSSOAgentConfig() throws SSOAgentException {
+        SSOAgentConfig config = new SSOAgentConfig();
+        config.initConfig(properties);
+        config.getSAML2().setSSOAgentX509Credential(credential);
+        config.getOpenId().setAttributesRequestor(new SampleAttributesRequestor());
+        return config;
+    }
 }
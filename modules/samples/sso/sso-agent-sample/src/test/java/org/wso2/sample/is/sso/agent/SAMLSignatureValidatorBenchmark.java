@@ -0,0 +1,229 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.SAMLVersion;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Subject;
+import org.opensaml.security.SAMLSignatureProfileValidator;
+import org.opensaml.xml.security.credential.BasicCredential;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureValidator;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.validation.ValidationException;
+import org.wso2.carbon.identity.sso.agent.SSOAgentException;
+import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
+import org.wso2.carbon.identity.sso.agent.saml.SAMLSignatureValidator;
+import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509Credential;
+import org.wso2.carbon.identity.sso.agent.saml.SSOAgentX509KeyStoreCredential;
+
+import javax.xml.namespace.QName;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * Compares the time and the allocation per response of CachingSAMLSignatureValidator with a validator which
+ * prepares the IdP credential for every response, as the default validator of the agent does. Both verify the
+ * signatures of a response and of its assertion, signed with the key of wso2carbon.jks.
+ *
+ * Usage: SAMLSignatureValidatorBenchmark [iterations per round] [rounds]
+ * The first rounds warm up the JIT; the report is taken from the last round.
+ */
+public class SAMLSignatureValidatorBenchmark {
+
+    private static final String[] MODES = {"uncached", "cached"};
+
+    private static final String KEY_STORE = "/wso2carbon.jks";
+
+    private static final char[] KEY_STORE_PASSWORD = "wso2carbon".toCharArray();
+
+    private static final String ALIAS = "wso2carbon";
+
+    private static final String IDP_ENTITY_ID = "localhost";
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        DefaultBootstrap.bootstrap();
+        SSOAgentX509Credential credential = loadCredential();
+        SSOAgentConfig config = new SSOAgentConfig();
+        config.getSAML2().setIdPEntityId(IDP_ENTITY_ID);
+        config.getSAML2().setSSOAgentX509Credential(credential);
+        config.getSAML2().setResponseSigned(true);
+        config.getSAML2().setAssertionSigned(true);
+
+        Response response = createSignedResponse(credential.getPrivateKey());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        Response forged = createSignedResponse(generator.generateKeyPair().getPrivate());
+
+        SAMLSignatureValidator[] validators = {new UncachedSAMLSignatureValidator(),
+                new CachingSAMLSignatureValidator()};
+        for (int mode = 0; mode < MODES.length; mode++) {
+            validators[mode].validateSignature(response, response.getAssertions().get(0), config);
+            try {
+                validators[mode].validateSignature(forged, forged.getAssertions().get(0), config);
+                System.err.println("The " + MODES[mode] + " validator accepted a response signed with another key");
+                System.exit(1);
+            } catch (SSOAgentException e) {
+                // expected
+            }
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            for (int mode = 0; mode < MODES.length; mode++) {
+                long[] result = measure(validators[mode], response, config, iterations);
+                if (round == rounds) {
+                    System.out.println(String.format("%-20s %8d ns/response %8s bytes/response", MODES[mode],
+                            result[0], result[1] < 0 ? "n/a" : String.valueOf(result[1])));
+                }
+            }
+        }
+    }
+
+    private static long[] measure(SAMLSignatureValidator validator, Response response, SSOAgentConfig config,
+                                  int iterations) throws SSOAgentException {
+        Assertion assertion = response.getAssertions().get(0);
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            validator.validateSignature(response, assertion, config);
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocatedAfter = allocatedBytes();
+        return new long[]{elapsed / iterations,
+                allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / iterations};
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static SSOAgentX509Credential loadCredential() throws Exception {
+        InputStream in = SAMLSignatureValidatorBenchmark.class.getResourceAsStream(KEY_STORE);
+        try {
+            return new SSOAgentX509KeyStoreCredential(in, KEY_STORE_PASSWORD, ALIAS, ALIAS, KEY_STORE_PASSWORD);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build a response with one assertion, both signed with the given key
+     */
+    private static Response createSignedResponse(PrivateKey key) throws Exception {
+
+        NameID nameId = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setValue("admin");
+        Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        subject.setNameID(nameId);
+
+        Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_assertion");
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setIssueInstant(new DateTime());
+        assertion.setIssuer(createIssuer());
+        assertion.setSubject(subject);
+        assertion.setSignature(createSignature(key));
+
+        Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_response");
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssueInstant(new DateTime());
+        response.setIssuer(createIssuer());
+        response.getAssertions().add(assertion);
+        response.setSignature(createSignature(key));
+
+        Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+        // the assertion is signed first, as its signature is part of the signed response
+        Signer.signObject(assertion.getSignature());
+        Signer.signObject(response.getSignature());
+        return response;
+    }
+
+    private static Issuer createIssuer() {
+        Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(IDP_ENTITY_ID);
+        return issuer;
+    }
+
+    private static Signature createSignature(PrivateKey key) {
+        BasicCredential credential = new BasicCredential();
+        credential.setPrivateKey(key);
+        Signature signature = build(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        return signature;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T build(QName name) {
+        return (T) Configuration.getBuilderFactory().getBuilder(name).buildObject(name);
+    }
+
+    /**
+     * Prepares the signature profile validator, the IdP credential and the signature validator for every response
+     */
+    private static class UncachedSAMLSignatureValidator implements SAMLSignatureValidator {
+
+        public void validateSignature(Response response, Assertion assertion, SSOAgentConfig ssoAgentConfig)
+                throws SSOAgentException {
+            if (ssoAgentConfig.getSAML2().isResponseSigned()) {
+                validate(response.getSignature(), ssoAgentConfig);
+            }
+            if (ssoAgentConfig.getSAML2().isAssertionSigned()) {
+                validate(assertion.getSignature(), ssoAgentConfig);
+            }
+        }
+
+        private static void validate(Signature signature, SSOAgentConfig ssoAgentConfig) throws SSOAgentException {
+            try {
+                new SAMLSignatureProfileValidator().validate(signature);
+                X509Certificate certificate = ssoAgentConfig.getSAML2().getSSOAgentX509Credential()
+                        .getEntityCertificate();
+                BasicX509Credential credential = new BasicX509Credential();
+                credential.setEntityCertificate(certificate);
+                credential.setPublicKey(certificate.getPublicKey());
+                new SignatureValidator(credential).validate(signature);
+            } catch (ValidationException e) {
+                throw new SSOAgentException("Signature validation failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.sample.is.sso.agent;
+
+import junit.framework.TestCase;
+import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests of the per request agent configuration. The shared configuration is read from travelocity.properties.
+ */
+public class SSOAgentConfigOverlayTest extends TestCase {
+
+    private static final String POST_BINDING = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST";
+
+    private static final String REDIRECT_BINDING = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect";
+
+    private static final int THREADS = 32;
+
+    private static final int REQUESTS_PER_THREAD = 20000;
+
+    private SSOAgentConfig shared;
+
+    @Override
+    protected void setUp() throws Exception {
+
+        Properties properties = new Properties();
+        InputStream in = SSOAgentConfigOverlayTest.class.getResourceAsStream("/travelocity.properties");
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        shared = new SSOAgentConfig();
+        shared.initConfig(properties);
+    }
+
+    public void testOverlayHoldsRequestAndSharedValues() {
+
+        SSOAgentConfig config = SSOAgentConfigOverlay.create(shared, REDIRECT_BINDING, "payload",
+                "https://localhost:9443/openid/admin", "checkid_setup");
+
+        assertEquals(REDIRECT_BINDING + "|payload|https://localhost:9443/openid/admin|checkid_setup",
+                describe(config));
+        assertEquals(shared.getSAML2SSOURL(), config.getSAML2SSOURL());
+        assertEquals(shared.isSAML2SSOLoginEnabled(), config.isSAML2SSOLoginEnabled());
+        assertEquals(shared.getSAML2().getIdPURL(), config.getSAML2().getIdPURL());
+        assertEquals(shared.getSAML2().isSLOEnabled(), config.getSAML2().isSLOEnabled());
+        assertSame(shared.getSAML2().getSSOAgentX509Credential(), config.getSAML2().getSSOAgentX509Credential());
+        assertEquals(shared.getOpenId().getProviderURL(), config.getOpenId().getProviderURL());
+        assertEquals(shared.getSkipURIs(), config.getSkipURIs());
+        assertEquals(shared.getQueryParams().keySet(), config.getQueryParams().keySet());
+    }
+
+    public void testOverlayChangesDoNotReachSharedConfig() {
+
+        String sharedValues = describe(shared);
+        int sharedSkipURIs = shared.getSkipURIs().size();
+        int sharedQueryParams = shared.getQueryParams().size();
+
+        SSOAgentConfig config = SSOAgentConfigOverlay.create(shared, POST_BINDING, null, "claimed", "mode");
+        assertNotSame(shared.getSAML2(), config.getSAML2());
+        assertNotSame(shared.getOpenId(), config.getOpenId());
+        assertNotSame(shared.getOAuth2(), config.getOAuth2());
+        assertNotSame(shared.getSkipURIs(), config.getSkipURIs());
+        assertNotSame(shared.getQueryParams(), config.getQueryParams());
+
+        config.getSAML2().setIdPURL("https://changed");
+        config.getSkipURIs().add("/changed");
+        config.getQueryParams().put("changed", new String[]{"changed"});
+        for (String[] values : config.getQueryParams().values()) {
+            values[0] = "changed";
+        }
+
+        assertEquals(sharedValues, describe(shared));
+        assertFalse("https://changed".equals(shared.getSAML2().getIdPURL()));
+        assertEquals(sharedSkipURIs, shared.getSkipURIs().size());
+        assertEquals(sharedQueryParams, shared.getQueryParams().size());
+        for (String[] values : shared.getQueryParams().values()) {
+            assertFalse("changed".equals(values[0]));
+        }
+    }
+
+    /**
+     * Many threads build overlays of the shared configuration with values of their own. Every overlay must hold
+     * exactly its own request values, and the shared configuration must never change.
+     */
+    public void testConcurrentOverlaysDoNotLeak() throws InterruptedException {
+
+        final String sharedValues = describe(shared);
+        final AtomicLong checked = new AtomicLong();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < REQUESTS_PER_THREAD && failure.get() == null; i++) {
+                            String binding = (i & 1) == 0 ? POST_BINDING : REDIRECT_BINDING;
+                            String payload = (i & 2) == 0 ? null : "payload-" + thread + "-" + i;
+                            String claimedId = "https://localhost:9443/openid/user" + thread + "-" + i;
+                            String mode = "mode-" + thread + "-" + i;
+
+                            SSOAgentConfig config = SSOAgentConfigOverlay.create(shared, binding, payload,
+                                    claimedId, mode);
+                            config.getSkipURIs().add("/request-" + thread + "-" + i);
+                            Thread.yield();
+                            String expected = binding + "|" + payload + "|" + claimedId + "|" + mode;
+                            if (!expected.equals(describe(config))) {
+                                failure.compareAndSet(null, "request values of thread " + thread + " expected " +
+                                        expected + " but were " + describe(config));
+                            } else if (config.getSkipURIs().size() != shared.getSkipURIs().size() + 1) {
+                                failure.compareAndSet(null, "skipped URIs leaked between requests");
+                            } else if (!sharedValues.equals(describe(shared))) {
+                                failure.compareAndSet(null, "the shared configuration was modified: " +
+                                        describe(shared));
+                            }
+                            checked.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "overlay-test-" + t).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        assertNull(failure.get(), failure.get());
+        assertEquals((long) THREADS * REQUESTS_PER_THREAD, checked.get());
+    }
+
+    private static String describe(SSOAgentConfig config) {
+        return config.getSAML2().getHttpBinding() + "|" + config.getSAML2().getPostBindingRequestHTMLPayload() + "|" +
+                config.getOpenId().getClaimedId() + "|" + config.getOpenId().getMode();
+    }
+}
@@ -1,3 +1,5 @@
+# lib must hold the jars the sample depends on, e.g. libthrift and org.wso2.balana of
+# <IS_HOME>/repository/components/plugins, see README.txt
 SAMPLE_CLASSPATH=""
 for f in lib/*.jar
 do
@@ -0,0 +1,555 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PEP that batches concurrent authorization requests into XACML 3.0 Multiple Decision Profile requests.
+ *
+ * Requests are collected until the batch is full or the batch window has passed since the first request of the
+ * batch, then sent as one request whose MultiRequests element references the attributes of every individual
+ * request. Each individual request carries an extra attribute with IncludeInResult="true" holding its index, so
+ * the results can be matched to the callers whatever order the PDP returns them in. Callers get back a response
+ * of their own single result, as if the request was sent alone.
+ *
+ * Requests which can not be combined, e.g. ones asking for the policy id list or already using multiple
+ * decisions, are sent on their own. The decision cache of the agent is consulted for every individual request.
+ */
+public class BatchingPEP {
+
+    private static final String XACML3_NS = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private static final String BATCH_CATEGORY = "http://kmarket.com/category/batch";
+
+    private static final String BATCH_INDEX_ID = "http://kmarket.com/id/batchIndex";
+
+    private static final String INTEGER_TYPE = "http://www.w3.org/2001/XMLSchema#integer";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final WSO2IdentityAgent agent;
+
+    private final int maxBatchSize;
+
+    private final long batchWindowMillis;
+
+    private final BlockingQueue<PendingDecision> queue = new LinkedBlockingQueue<PendingDecision>();
+
+    private final ExecutorService senders;
+
+    private final Thread collector;
+
+    private volatile boolean running = true;
+
+    /**
+     * Held for reading while a request is queued and for writing while batching is stopped, so no request is
+     * queued after shutdown has drained the queue
+     */
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param agent agent sending the requests to the PDP
+     * @param maxBatchSize maximum number of individual requests in a batch
+     * @param batchWindowMillis longest time the first request of a batch waits for others
+     * @param maxConcurrentBatches number of batches that may be in flight at the same time
+     */
+    public BatchingPEP(WSO2IdentityAgent agent, int maxBatchSize, long batchWindowMillis,
+                       int maxConcurrentBatches) {
+        this.agent = agent;
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindowMillis = batchWindowMillis;
+        this.senders = Executors.newFixedThreadPool(maxConcurrentBatches);
+        this.collector = new Thread(new Runnable() {
+            public void run() {
+                collect();
+            }
+        }, "kmarket-pep-batcher");
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    /**
+     * Authorize a single XACML request, waiting for the batch it is sent with
+     * @param xacmlRequest XACML 3.0 request
+     * @return XACML response, or null if the PDP could not be reached
+     */
+    public String authorize(String xacmlRequest) {
+        List<String> responses = authorize(Collections.singletonList(xacmlRequest));
+        return responses.get(0);
+    }
+
+    /**
+     * Authorize requests together, e.g. the items of one order
+     * @param xacmlRequests XACML 3.0 requests
+     * @return XACML responses in the order of the requests, null where the PDP could not be reached
+     */
+    public List<String> authorize(List<String> xacmlRequests) {
+
+        DecisionCache decisionCache = agent.getDecisionCache();
+        List<PendingDecision> pending = new ArrayList<PendingDecision>(xacmlRequests.size());
+        for (String xacmlRequest : xacmlRequests) {
+            PendingDecision decision = new PendingDecision(xacmlRequest, decisionCache.getKey(xacmlRequest),
+                    decisionCache.getGeneration());
+            if (decision.cacheKey != null) {
+                decision.response = decisionCache.get(decision.cacheKey);
+            }
+            if (decision.response == null) {
+                decision.attributes = IndividualRequest.parse(xacmlRequest);
+                if (decision.attributes != null && enqueue(decision)) {
+                    pending.add(decision);
+                    continue;
+                }
+                // can not be combined, sent as it is
+                decision.response = agent.authorize(xacmlRequest);
+            }
+            decision.done.countDown();
+            pending.add(decision);
+        }
+
+        List<String> responses = new ArrayList<String>(pending.size());
+        for (PendingDecision decision : pending) {
+            try {
+                decision.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responses.add(decision.response);
+        }
+        return responses;
+    }
+
+    /**
+     * Send the queued requests and stop batching. Later requests are sent on their own.
+     */
+    public void shutdown() {
+        runningLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            runningLock.writeLock().unlock();
+        }
+        collector.interrupt();
+        try {
+            collector.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (!queue.isEmpty()) {
+            List<PendingDecision> remaining = new ArrayList<PendingDecision>(maxBatchSize);
+            queue.drainTo(remaining, maxBatchSize);
+            send(remaining);
+        }
+        senders.shutdown();
+    }
+
+    /**
+     * @return false if batching has been stopped, in which case the request is not queued
+     */
+    private boolean enqueue(PendingDecision decision) {
+        runningLock.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            queue.add(decision);
+            return true;
+        } finally {
+            runningLock.readLock().unlock();
+        }
+    }
+
+    private void collect() {
+        while (running || !queue.isEmpty()) {
+            List<PendingDecision> batch = new ArrayList<PendingDecision>(maxBatchSize);
+            try {
+                PendingDecision first = running ? queue.take() : queue.poll();
+                if (first == null) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + batchWindowMillis;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    PendingDecision next = wait > 0 && running ?
+                            queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // shutting down, flush what was collected and what is still queued
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                final List<PendingDecision> toSend = batch;
+                senders.execute(new Runnable() {
+                    public void run() {
+                        send(toSend);
+                    }
+                });
+            }
+        }
+    }
+
+    private void send(List<PendingDecision> batch) {
+        try {
+            if (batch.size() == 1) {
+                PendingDecision decision = batch.get(0);
+                decision.response = agent.authorize(decision.request);
+            } else {
+                Map<String, String> results = splitResponse(agent.authorize(createMultiRequest(batch)));
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).response = results.get(String.valueOf(i));
+                }
+            }
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+        } finally {
+            DecisionCache decisionCache = agent.getDecisionCache();
+            for (PendingDecision decision : batch) {
+                if (decision.cacheKey != null && decision.response != null) {
+                    decisionCache.put(decision.cacheKey, decision.response, decision.cacheGeneration);
+                }
+                decision.done.countDown();
+            }
+        }
+    }
+
+    private static String createMultiRequest(List<PendingDecision> batch) throws XMLStreamException {
+
+        StringWriter buffer = new StringWriter(batch.size() * 1024);
+        XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(buffer);
+        writer.setDefaultNamespace(XACML3_NS);
+        writer.writeStartElement(XACML3_NS, "Request");
+        writer.writeDefaultNamespace(XACML3_NS);
+        writer.writeAttribute("CombinedDecision", "false");
+        writer.writeAttribute("ReturnPolicyIdList", "false");
+
+        for (int i = 0; i < batch.size(); i++) {
+            List<IndividualRequest.Attributes> attributesList = batch.get(i).attributes.attributes;
+            for (int j = 0; j < attributesList.size(); j++) {
+                IndividualRequest.Attributes attributes = attributesList.get(j);
+                writer.writeStartElement(XACML3_NS, "Attributes");
+                writer.writeAttribute("Category", attributes.category);
+                writer.writeAttribute("xml", XML_NS, "id", "r" + i + "a" + j);
+                for (IndividualRequest.Attribute attribute : attributes.attributes) {
+                    writer.writeStartElement(XACML3_NS, "Attribute");
+                    writer.writeAttribute("AttributeId", attribute.id);
+                    if (attribute.issuer != null) {
+                        writer.writeAttribute("Issuer", attribute.issuer);
+                    }
+                    writer.writeAttribute("IncludeInResult", String.valueOf(attribute.includeInResult));
+                    for (String[] value : attribute.values) {
+                        writer.writeStartElement(XACML3_NS, "AttributeValue");
+                        writer.writeAttribute("DataType", value[0]);
+                        writer.writeCharacters(value[1]);
+                        writer.writeEndElement();
+                    }
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+            }
+
+            writer.writeStartElement(XACML3_NS, "Attributes");
+            writer.writeAttribute("Category", BATCH_CATEGORY);
+            writer.writeAttribute("xml", XML_NS, "id", "r" + i + "b");
+            writer.writeStartElement(XACML3_NS, "Attribute");
+            writer.writeAttribute("AttributeId", BATCH_INDEX_ID);
+            writer.writeAttribute("IncludeInResult", "true");
+            writer.writeStartElement(XACML3_NS, "AttributeValue");
+            writer.writeAttribute("DataType", INTEGER_TYPE);
+            writer.writeCharacters(String.valueOf(i));
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+
+        writer.writeStartElement(XACML3_NS, "MultiRequests");
+        for (int i = 0; i < batch.size(); i++) {
+            writer.writeStartElement(XACML3_NS, "RequestReference");
+            int attributesCount = batch.get(i).attributes.attributes.size();
+            for (int j = 0; j <= attributesCount; j++) {
+                writer.writeEmptyElement(XACML3_NS, "AttributesReference");
+                writer.writeAttribute("ReferenceId", j < attributesCount ? "r" + i + "a" + j : "r" + i + "b");
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+
+        writer.writeEndElement();
+        writer.close();
+        return buffer.toString();
+    }
+
+    /**
+     * Split a multiple decision response into single result responses keyed by batch index, dropping the batch
+     * index attribute from them
+     */
+    private static Map<String, String> splitResponse(String xacmlResponse) throws XMLStreamException {
+
+        Map<String, String> results = new HashMap<String, String>();
+        if (xacmlResponse == null) {
+            return results;
+        }
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xacmlResponse));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !"Result".equals(reader.getLocalName())) {
+                    continue;
+                }
+                String namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+                StringWriter buffer = new StringWriter(512);
+                XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(buffer);
+                writer.setDefaultNamespace(namespace);
+                writer.writeStartElement(namespace, "Response");
+                writer.writeDefaultNamespace(namespace);
+                String index = copyResult(reader, writer);
+                writer.writeEndElement();
+                writer.close();
+                if (index != null) {
+                    results.put(index, buffer.toString());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    /**
+     * Copy the Result element the reader is positioned on, returning its batch index
+     */
+    private static String copyResult(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+
+        String index = null;
+        int depth = 0;
+        do {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if ("Attributes".equals(reader.getLocalName()) &&
+                            BATCH_CATEGORY.equals(reader.getAttributeValue(null, "Category"))) {
+                        index = readBatchIndex(reader);
+                        break;
+                    }
+                    depth++;
+                    writeStartElement(reader, writer);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0) {
+                return index;
+            }
+            reader.next();
+        } while (true);
+    }
+
+    private static String readBatchIndex(XMLStreamReader reader) throws XMLStreamException {
+        String index = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("AttributeValue".equals(reader.getLocalName())) {
+                    index = reader.getElementText().trim();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return index;
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer)
+            throws XMLStreamException {
+        String namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+        String prefix = reader.getPrefix() == null ? "" : reader.getPrefix();
+        writer.writeStartElement(prefix, reader.getLocalName(), namespace);
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String declaredPrefix = reader.getNamespacePrefix(i);
+            if (declaredPrefix == null || declaredPrefix.length() == 0) {
+                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+            } else {
+                writer.writeNamespace(declaredPrefix, reader.getNamespaceURI(i));
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (attributeNamespace == null || attributeNamespace.length() == 0) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(reader.getAttributePrefix(i), attributeNamespace,
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    private static class PendingDecision {
+
+        private final String request;
+
+        private final String cacheKey;
+
+        private final long cacheGeneration;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private IndividualRequest attributes;
+
+        private volatile String response;
+
+        private PendingDecision(String request, String cacheKey, long cacheGeneration) {
+            this.request = request;
+            this.cacheKey = cacheKey;
+            this.cacheGeneration = cacheGeneration;
+        }
+    }
+
+    /**
+     * Attributes of a plain XACML 3.0 request, read so they can be written again with reference ids
+     */
+    private static class IndividualRequest {
+
+        private final List<Attributes> attributes = new ArrayList<Attributes>();
+
+        /**
+         * @return the request, or null if it can not be part of a multiple decision request
+         */
+        private static IndividualRequest parse(String xacmlRequest) {
+
+            IndividualRequest request = new IndividualRequest();
+            try {
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xacmlRequest));
+                try {
+                    Attributes attributes = null;
+                    Attribute attribute = null;
+                    while (reader.hasNext()) {
+                        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                            continue;
+                        }
+                        if (!XACML3_NS.equals(reader.getNamespaceURI())) {
+                            return null;
+                        }
+                        String name = reader.getLocalName();
+                        if ("Request".equals(name)) {
+                            if ("true".equals(reader.getAttributeValue(null, "ReturnPolicyIdList")) ||
+                                    "true".equals(reader.getAttributeValue(null, "CombinedDecision"))) {
+                                return null;
+                            }
+                        } else if ("Attributes".equals(name)) {
+                            if (reader.getAttributeValue(null, "Category") == null) {
+                                return null;
+                            }
+                            attributes = new Attributes(reader.getAttributeValue(null, "Category"));
+                            request.attributes.add(attributes);
+                        } else if ("Attribute".equals(name) && attributes != null &&
+                                reader.getAttributeValue(null, "AttributeId") != null) {
+                            attribute = new Attribute(reader.getAttributeValue(null, "AttributeId"),
+                                    reader.getAttributeValue(null, "Issuer"),
+                                    "true".equals(reader.getAttributeValue(null, "IncludeInResult")));
+                            attributes.attributes.add(attribute);
+                        } else if ("AttributeValue".equals(name) && attribute != null &&
+                                reader.getAttributeValue(null, "DataType") != null) {
+                            attribute.values.add(new String[]{reader.getAttributeValue(null, "DataType"),
+                                    reader.getElementText()});
+                        } else {
+                            // MultiRequests, RequestDefaults, Content or an unexpected structure
+                            return null;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                return null;
+            }
+            return request;
+        }
+
+        private static class Attributes {
+
+            private final String category;
+
+            private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+            private Attributes(String category) {
+                this.category = category;
+            }
+        }
+
+        private static class Attribute {
+
+            private final String id;
+
+            private final String issuer;
+
+            private final boolean includeInResult;
+
+            private final List<String[]> values = new ArrayList<String[]>();
+
+            private Attribute(String id, String issuer, boolean includeInResult) {
+                this.id = id;
+                this.issuer = issuer;
+                this.includeInResult = includeInResult;
+            }
+        }
+    }
+}
@@ -34,5 +34,43 @@ public class Constants {
 
         public static final String TRUST_STORE_PASSWORD = "trustStorePassword";
 
+        public static final String DECISION_CACHE_SIZE = "decisionCacheSize";
+
+        public static final String DECISION_CACHE_TIME_TO_LIVE = "decisionCacheTimeToLive";
+
+        public static final String MAX_DECISIONS_IN_FLIGHT = "maxDecisionsInFlight";
+
+        public static final String DECISION_TIMEOUT = "decisionTimeout";
+
+        public static final String MAX_CONNECTIONS_PER_HOST = "maxConnectionsPerHost";
+
+        public static final String POLICY_UPLOAD_THREADS = "policyUploadThreads";
+
+        public static final String DECISION_TRANSPORT = "decisionTransport";
+
+        public static final String THRIFT_TRANSPORT = "thrift";
+
+        public static final String OFFLINE_TRANSPORT = "offline";
+
+        public static final String OFFLINE_POLICY_LOCATIONS = "offlinePolicyLocations";
+
+        public static final String OFFLINE_USER_ROLES = "offlineUserRoles";
+
+        public static final String DEFAULT_OFFLINE_USER_ROLES = "bob:PRIMARY/gold,bob:kmarket-gold," +
+                "alice:PRIMARY/silver,alice:kmarket-silver,peter:PRIMARY/blue,peter:kmarket-blue";
+
+        public static final String OFFLINE_ROLE_ATTRIBUTE_IDS = "offlineRoleAttributeIds";
+
+        public static final String DEFAULT_OFFLINE_ROLE_ATTRIBUTE_IDS =
+                "http://wso2.org/claims/role,http://kmarket.com/id/role";
+
+        public static final String THRIFT_HOST = "thriftHost";
+
+        public static final String THRIFT_PORT = "thriftPort";
+
+        public static final String THRIFT_AUTHENTICATOR_URL = "thriftAuthenticatorUrl";
+
+        public static final String THRIFT_CONNECTIONS = "thriftConnections";
+
     }
 }
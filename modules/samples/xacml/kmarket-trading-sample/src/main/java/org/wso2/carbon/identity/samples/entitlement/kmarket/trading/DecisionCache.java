@@ -0,0 +1,293 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PEP side cache of XACML decisions.
+ *
+ * Requests are reduced to a key made of the request level flags and the sorted attribute category, id, issuer, data
+ * type and canonical value tuples, so requests differing only in attribute order or formatting share a decision.
+ * Only plain Permit and Deny responses of a single result, without obligations or advice, are cached. Requests
+ * using multiple decisions, references or content, or asking for attributes in the result, are never cached.
+ * Entries expire after the time to live and the least recently used entry is dropped when the cache is full.
+ * The cache must be cleared whenever policies change. Every clear starts a new generation, and a response is only
+ * cached if no clear happened since its request was sent, so a decision made under the old policies is not cached
+ * after the clear.
+ */
+public class DecisionCache {
+
+    private static final String XACML3_NS = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+    private static final String INTEGER_TYPE = "http://www.w3.org/2001/XMLSchema#integer";
+
+    private static final String BOOLEAN_TYPE = "http://www.w3.org/2001/XMLSchema#boolean";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final int maxEntries;
+
+    private final long timeToLiveMillis;
+
+    private final Map<String, CachedDecision> entries;
+
+    private long hits;
+
+    private long misses;
+
+    private long generation;
+
+    /**
+     * @param maxEntries maximum number of cached decisions, 0 disables the cache
+     * @param timeToLiveMillis time a decision is cached
+     */
+    public DecisionCache(final int maxEntries, long timeToLiveMillis) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<String, CachedDecision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDecision> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && timeToLiveMillis > 0;
+    }
+
+    /**
+     * Compute the cache key of a request
+     * @param xacmlRequest XACML request
+     * @return key, or null if the request is not cacheable
+     */
+    public String getKey(String xacmlRequest) {
+
+        if (!isEnabled()) {
+            return null;
+        }
+
+        List<String> attributes = new ArrayList<String>();
+        StringBuilder flags = new StringBuilder();
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xacmlRequest));
+            try {
+                String category = null;
+                String attributeId = null;
+                String issuer = null;
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (!XACML3_NS.equals(reader.getNamespaceURI())) {
+                        return null;
+                    }
+                    String name = reader.getLocalName();
+                    if ("Request".equals(name)) {
+                        flags.append(reader.getAttributeValue(null, "ReturnPolicyIdList")).append('|')
+                                .append(reader.getAttributeValue(null, "CombinedDecision"));
+                    } else if ("Attributes".equals(name)) {
+                        category = reader.getAttributeValue(null, "Category");
+                    } else if ("Attribute".equals(name)) {
+                        if ("true".equals(reader.getAttributeValue(null, "IncludeInResult"))) {
+                            return null;
+                        }
+                        attributeId = reader.getAttributeValue(null, "AttributeId");
+                        issuer = reader.getAttributeValue(null, "Issuer");
+                    } else if ("AttributeValue".equals(name)) {
+                        String dataType = reader.getAttributeValue(null, "DataType");
+                        String value = canonicalValue(dataType, reader.getElementText());
+                        attributes.add(category + '\u0000' + attributeId + '\u0000' + (issuer == null ? "" : issuer) +
+                                '\u0000' + dataType + '\u0000' + value);
+                    } else {
+                        // MultiRequests, RequestDefaults, Content and other structures are not cached
+                        return null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return null;
+        }
+
+        Collections.sort(attributes);
+        StringBuilder canonical = new StringBuilder(flags);
+        for (String attribute : attributes) {
+            canonical.append('\u0001').append(attribute);
+        }
+        return digest(canonical.toString());
+    }
+
+    /**
+     * @param key request key
+     * @return cached response, or null if there is none or it has expired
+     */
+    public synchronized String get(String key) {
+        CachedDecision entry = entries.get(key);
+        if (entry != null && entry.expiry > System.currentTimeMillis()) {
+            hits++;
+            return entry.response;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Cache the response if it is a plain Permit or Deny decision
+     * @param key request key
+     * @param xacmlResponse XACML response
+     * @param generation generation read with {@link #getGeneration()} before the request was sent
+     */
+    public void put(String key, String xacmlResponse, long generation) {
+        if (key == null || !isCacheable(xacmlResponse)) {
+            return;
+        }
+        CachedDecision entry = new CachedDecision(xacmlResponse, System.currentTimeMillis() + timeToLiveMillis);
+        synchronized (this) {
+            if (generation == this.generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached decisions, e.g. after a policy is added or updated
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    /**
+     * @return number of clears so far, to be read before a request is sent to the PDP
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static boolean isCacheable(String xacmlResponse) {
+
+        int results = 0;
+        String decision = null;
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xacmlResponse));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    if ("Result".equals(name)) {
+                        results++;
+                    } else if ("Decision".equals(name)) {
+                        decision = reader.getElementText().trim();
+                    } else if ("Obligations".equals(name) || "AssociatedAdvice".equals(name) ||
+                            "Attributes".equals(name) || "PolicyIdentifierList".equals(name)) {
+                        return false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return false;
+        }
+        return results == 1 && ("Permit".equals(decision) || "Deny".equals(decision));
+    }
+
+    private static String canonicalValue(String dataType, String value) {
+        value = value.trim();
+        try {
+            if (INTEGER_TYPE.equals(dataType)) {
+                return new BigInteger(value.startsWith("+") ? value.substring(1) : value).toString();
+            }
+        } catch (NumberFormatException e) {
+            return value;
+        }
+        if (BOOLEAN_TYPE.equals(dataType)) {
+            return "1".equals(value) ? "true" : "0".equals(value) ? "false" : value;
+        }
+        return value;
+    }
+
+    private static String digest(String canonical) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes("UTF-8"));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX[hash[i] & 0x0f];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            // the canonical form itself is an exact, if longer, key
+            return canonical;
+        } catch (UnsupportedEncodingException e) {
+            return canonical;
+        }
+    }
+
+    private static class CachedDecision {
+
+        private final String response;
+
+        private final long expiry;
+
+        private CachedDecision(String response, long expiry) {
+            this.response = response;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pending XACML decision of an asynchronous authorization.
+ *
+ * The future is completed once, with the response, a failure or a cancellation; later attempts are ignored.
+ * Callbacks added before completion run on the completing thread, usually a transport thread, so they should not
+ * block. Callbacks added after completion run at once on the adding thread.
+ */
+public class DecisionFuture implements Future<String> {
+
+    /**
+     * Receives the outcome of a decision future
+     */
+    public interface Callback {
+
+        void onDecision(String xacmlResponse);
+
+        void onError(Throwable error);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private List<Callback> callbacks = new ArrayList<Callback>(1);
+
+    private String response;
+
+    private Throwable error;
+
+    private boolean completed;
+
+    private boolean cancelled;
+
+    /**
+     * @return true if this call completed the future
+     */
+    public boolean complete(String xacmlResponse) {
+        return finish(xacmlResponse, null, false);
+    }
+
+    /**
+     * @return true if this call completed the future
+     */
+    public boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // the SOAP call itself can not be aborted, its result is dropped
+        return finish(null, new CancellationException("Decision was cancelled"), true);
+    }
+
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (!completed) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        notify(callback);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return completed;
+    }
+
+    public String get() throws InterruptedException, ExecutionException {
+        done.await();
+        return outcome();
+    }
+
+    public String get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("No decision within " + unit.toMillis(timeout) + " ms");
+        }
+        return outcome();
+    }
+
+    private synchronized String outcome() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return response;
+    }
+
+    private boolean finish(String xacmlResponse, Throwable failure, boolean cancel) {
+        List<Callback> toNotify;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            cancelled = cancel;
+            response = xacmlResponse;
+            error = failure;
+            toNotify = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (Callback callback : toNotify) {
+            notify(callback);
+        }
+        return true;
+    }
+
+    private void notify(Callback callback) {
+        String xacmlResponse;
+        Throwable failure;
+        synchronized (this) {
+            xacmlResponse = response;
+            failure = error;
+        }
+        try {
+            if (failure == null) {
+                callback.onDecision(xacmlResponse);
+            } else {
+                callback.onError(failure);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
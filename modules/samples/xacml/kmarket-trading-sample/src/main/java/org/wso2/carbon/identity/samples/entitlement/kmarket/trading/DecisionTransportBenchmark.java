@@ -0,0 +1,128 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the decision latency of the SOAP and the Thrift transports of WSO2IdentityAgent against
+ * StubEntitlementServer, so only the transport costs are measured. The decision cache is disabled.
+ *
+ * Usage: DecisionTransportBenchmark [requests per thread] [threads] [https port] [thrift port]
+ * Run it from the sample directory, the sample key store is used by both the server and the clients.
+ */
+public class DecisionTransportBenchmark {
+
+    private static final String[] TRANSPORTS = {"soap", Constants.AgentConstants.THRIFT_TRANSPORT};
+
+    public static void main(String[] args) throws Exception {
+
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int httpsPort = args.length > 2 ? Integer.parseInt(args[2]) : 19443;
+        int thriftPort = args.length > 3 ? Integer.parseInt(args[3]) : 20500;
+
+        String keyStore = new File("src" + File.separator + "main" + File.separator + "resources" +
+                File.separator + "wso2carbon.jks").getCanonicalPath();
+
+        StubEntitlementServer server = new StubEntitlementServer(httpsPort, thriftPort, keyStore, "wso2carbon");
+        server.start();
+        try {
+            for (String transport : TRANSPORTS) {
+                Properties properties = new Properties();
+                properties.setProperty(Constants.AgentConstants.SERVER_URL,
+                        "https://localhost:" + httpsPort + "/services/");
+                properties.setProperty(Constants.AgentConstants.TRUST_STORE_FILE, keyStore);
+                properties.setProperty(Constants.AgentConstants.DECISION_CACHE_SIZE, "0");
+                properties.setProperty(Constants.AgentConstants.DECISION_TRANSPORT, transport);
+                properties.setProperty(Constants.AgentConstants.THRIFT_PORT, String.valueOf(thriftPort));
+                properties.setProperty(Constants.AgentConstants.THRIFT_CONNECTIONS, String.valueOf(threads));
+
+                WSO2IdentityAgent agent = new WSO2IdentityAgent(properties);
+                try {
+                    // warm up the JIT and open the connections
+                    run(agent, requests / 2 + 1, threads);
+                    long begin = System.nanoTime();
+                    long[] latencies = run(agent, requests, threads);
+                    long elapsed = System.nanoTime() - begin;
+                    report(transport, latencies, elapsed);
+                } finally {
+                    agent.close();
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return latencies of all decisions in nanoseconds, sorted
+     */
+    private static long[] run(final WSO2IdentityAgent agent, final int requests, int threads)
+            throws InterruptedException {
+
+        final long[] latencies = new long[requests * threads];
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * requests;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < requests; i++) {
+                            String request = Utils.createXACMLRequest("bob", "Food", i & 15, (i & 15) * 20);
+                            long begin = System.nanoTime();
+                            String response = agent.authorize(request);
+                            latencies[offset + i] = System.nanoTime() - begin;
+                            if (response == null || !response.contains("Permit")) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        if (failures.get() > 0) {
+            System.err.println(failures.get() + " decisions failed");
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void report(String transport, long[] latencies, long elapsed) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        System.out.println(String.format("%-8s %8d decisions/s  mean %6d us  p50 %6d us  p99 %6d us  max %6d us",
+                transport, latencies.length * 1000000000L / elapsed, total / latencies.length / 1000,
+                percentile(latencies, 50) / 1000, percentile(latencies, 99) / 1000,
+                latencies[latencies.length - 1] / 1000));
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
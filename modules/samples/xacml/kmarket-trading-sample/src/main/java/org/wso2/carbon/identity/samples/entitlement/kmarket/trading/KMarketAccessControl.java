@@ -18,10 +18,6 @@
 
 package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
 
-import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.util.AXIOMUtil;
-
-import javax.xml.namespace.QName;
 import java.io.Console;
 import java.util.*;
 
@@ -42,11 +38,12 @@ public class KMarketAccessControl {
     public static void main(String[] args){
 
         // create agent instances
-        agent = new WSO2IdentityAgent(Utils.loadConfigProperties());
+        Properties properties = Utils.loadConfigProperties();
+        agent = new WSO2IdentityAgent(properties);
 
         if(args != null && args.length == 1 && "setup".equals(args[0])){
             System.out.println("\nStarting the K-Market sample setup\n");
-            Utils.setup(agent);
+            Utils.setup(agent, properties);
             System.out.println("\nFinishing the K-Market sample setup\n");
             System.exit(0);
         }
@@ -141,37 +138,20 @@ public class KMarketAccessControl {
         System.out.println("===========================================================");
 
         if(response != null){
-            OMElement advice = null;
-            String simpleDecision = null;
             String reason = null;
             try{
-                OMElement decisionElement = AXIOMUtil.stringToOM(response);
-                if(decisionElement != null){
-                    OMElement result = decisionElement.getFirstChildWithName(new QName("Result"));
-                    if(result != null){
-                        simpleDecision = result.getFirstChildWithName(new QName("Decision")).getText();
-                        advice = result.getFirstChildWithName(new QName("AssociatedAdvice"));
-                    }
-                }
+                XACMLResult result = XACMLResponseReader.readFirstResult(response);
 
-                if("Permit".equals(simpleDecision)){
+                if(result != null && result.isPermit()){
                     System.out.println("\nTransaction was completed successfully\n");
                     System.exit(0);
                 }
 
-                if("Deny".equals(simpleDecision)){
-                    if(advice != null){
-                        Iterator iterator =  advice.getChildElements();
-                        // only takes 1st advice and attribute assignment.
-                        if(iterator.hasNext()){
-                            OMElement element = (OMElement) iterator.next();
-                            Iterator attributeIterator = element.getChildElements();
-                            if(attributeIterator.hasNext()){
-                                OMElement attribute = (OMElement) attributeIterator.next();
-                                reason = attribute.getText();
-                            }
-
-                        }
+                if(result != null && result.isDeny()){
+                    List<XACMLResult.Obligation> advice = result.getAdvice();
+                    // only takes 1st advice and attribute assignment.
+                    if(!advice.isEmpty() && !advice.get(0).getAssignments().isEmpty()){
+                        reason = advice.get(0).getAssignments().get(0).getValue();
                     }
                 }
             } catch (Exception e){
@@ -0,0 +1,109 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import org.wso2.balana.Balana;
+import org.wso2.balana.PDP;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.PolicyFinder;
+import org.wso2.balana.finder.PolicyFinderModule;
+import org.wso2.balana.finder.impl.FileBasedPolicyFinderModule;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates decisions in process with Balana, the XACML engine of the Identity Server, so policies can be tried
+ * and measured without a running server. The policies are read once from the given files and directories; roles
+ * of the subject come from a fixed user to role mapping instead of a user store, for the given role attribute ids.
+ */
+public class OfflineDecisionTransport implements DecisionTransport {
+
+    private final PDP pdp;
+
+    private final int policyCount;
+
+    /**
+     * @param policyLocations policy files, or directories whose XML files are policies
+     * @param userRoles roles of each user name
+     * @param roleAttributeIds attribute ids the roles of the subject are found for
+     */
+    public OfflineDecisionTransport(Collection<String> policyLocations, Map<String, List<String>> userRoles,
+                                    Collection<String> roleAttributeIds) {
+
+        Set<String> policyFiles = new HashSet<String>();
+        for (String location : policyLocations) {
+            File file = new File(location.trim());
+            if (file.isDirectory()) {
+                File[] files = file.listFiles(new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return name.endsWith(".xml");
+                    }
+                });
+                if (files != null) {
+                    for (File policyFile : files) {
+                        policyFiles.add(policyFile.getAbsolutePath());
+                    }
+                }
+            } else if (file.isFile()) {
+                policyFiles.add(file.getAbsolutePath());
+            } else {
+                System.err.println("Policy file does not exist : " + location);
+            }
+        }
+        policyCount = policyFiles.size();
+
+        PolicyFinder policyFinder = new PolicyFinder();
+        Set<PolicyFinderModule> policyFinderModules = new HashSet<PolicyFinderModule>();
+        policyFinderModules.add(new FileBasedPolicyFinderModule(policyFiles));
+        policyFinder.setModules(policyFinderModules);
+
+        // a finder of our own, the default one of Balana is shared by all PDPs of the JVM
+        PDPConfig defaultConfig = Balana.getInstance().getPdpConfig();
+        List<AttributeFinderModule> attributeFinderModules =
+                new ArrayList<AttributeFinderModule>(defaultConfig.getAttributeFinder().getModules());
+        attributeFinderModules.add(new UserRoleFinderModule(userRoles, roleAttributeIds));
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(attributeFinderModules);
+
+        pdp = new PDP(new PDPConfig(attributeFinder, policyFinder, defaultConfig.getResourceFinder(), true));
+    }
+
+    public String getDecision(String xacmlRequest) throws Exception {
+        return pdp.evaluate(xacmlRequest);
+    }
+
+    /**
+     * @return number of policy files loaded
+     */
+    public int getPolicyCount() {
+        return policyCount;
+    }
+
+    public void close() {
+        // nothing is held outside the JVM
+    }
+}
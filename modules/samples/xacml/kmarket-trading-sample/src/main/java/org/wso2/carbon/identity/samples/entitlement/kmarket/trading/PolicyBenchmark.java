@@ -0,0 +1,179 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the decisions per second of the offline PDP for a policy set, and for each policy of the set alone, so
+ * slow policies can be found before they are deployed. The decisions of the requests are counted as well, which
+ * makes a change of behaviour of a policy visible.
+ *
+ * Usage: PolicyBenchmark [policy file or directory] [request file or directory] [iterations] [threads]
+ * Without request files the K-Market requests of all sample users and products are used. Roles of the users are
+ * taken from offlineUserRoles and offlineRoleAttributeIds of config.properties.
+ */
+public class PolicyBenchmark {
+
+    private static final String[] USERS = {"bob", "alice", "peter"};
+
+    private static final String[] PRODUCTS = {"Food", "Drink", "Fruit", "Liquor", "Medicine"};
+
+    private static final int[] PRICES = {20, 5, 15, 80, 50};
+
+    private static final int[] AMOUNTS = {1, 5, 20};
+
+    public static void main(String[] args) throws Exception {
+
+        File policyLocation = new File(args.length > 0 ? args[0] :
+                System.getProperty("user.dir") + File.separator + "resources");
+        List<String> requests = args.length > 1 && !"-".equals(args[1]) ?
+                readRequests(new File(args[1])) : createKMarketRequests();
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        Properties properties = Utils.loadConfigProperties();
+        String userRoles = properties.getProperty(Constants.AgentConstants.OFFLINE_USER_ROLES,
+                Constants.AgentConstants.DEFAULT_OFFLINE_USER_ROLES);
+        Map<String, List<String>> roles = UserRoleFinderModule.parseUserRoles(userRoles);
+        List<String> roleAttributeIds = Arrays.asList(properties.getProperty(
+                Constants.AgentConstants.OFFLINE_ROLE_ATTRIBUTE_IDS,
+                Constants.AgentConstants.DEFAULT_OFFLINE_ROLE_ATTRIBUTE_IDS).split(","));
+
+        System.out.println(requests.size() + " requests, " + iterations + " decisions per policy set, " +
+                threads + " threads\n");
+
+        measure(policyLocation.getName(), new OfflineDecisionTransport(
+                Collections.singleton(policyLocation.getPath()), roles, roleAttributeIds), requests, iterations, threads);
+
+        File[] policyFiles = policyLocation.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (policyFiles != null && policyFiles.length > 1) {
+            Arrays.sort(policyFiles);
+            for (File policyFile : policyFiles) {
+                measure("  " + policyFile.getName(), new OfflineDecisionTransport(
+                        Collections.singleton(policyFile.getPath()), roles, roleAttributeIds), requests, iterations, threads);
+            }
+        }
+    }
+
+    private static void measure(String name, final DecisionTransport transport, final List<String> requests,
+                                int iterations, int threads) throws Exception {
+
+        // warm up the JIT and the policy caches, and count the decisions on the way
+        Map<String, Integer> decisions = new TreeMap<String, Integer>();
+        for (int i = 0; i < Math.max(iterations / 10, requests.size()); i++) {
+            String response = transport.getDecision(requests.get(i % requests.size()));
+            if (i < requests.size()) {
+                XACMLResult result = XACMLResponseReader.readFirstResult(response);
+                String decision = result != null ? result.getDecision() : "NoResult";
+                Integer count = decisions.get(decision);
+                decisions.put(decision, count == null ? 1 : count + 1);
+            }
+        }
+
+        final int perThread = Math.max(iterations / threads, 1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            transport.getDecision(requests.get((offset + i) % requests.size()));
+                        }
+                    } catch (Exception e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        transport.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        long total = (long) perThread * threads;
+        System.out.println(String.format("%-40s %10.0f decisions/s %8.1f us/decision  %s", name,
+                total * 1e9 / elapsed, elapsed / 1000.0 * threads / total, decisions));
+    }
+
+    private static List<String> createKMarketRequests() {
+        List<String> requests = new ArrayList<String>();
+        for (String user : USERS) {
+            for (int product = 0; product < PRODUCTS.length; product++) {
+                for (int amount : AMOUNTS) {
+                    requests.add(Utils.createXACMLRequest(user, PRODUCTS[product], amount,
+                            PRICES[product] * amount));
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static List<String> readRequests(File location) throws IOException {
+        File[] files = location.isDirectory() ? location.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        }) : new File[]{location};
+        if (files == null || files.length == 0) {
+            throw new IOException("No request files in " + location);
+        }
+        Arrays.sort(files);
+        List<String> requests = new ArrayList<String>();
+        for (File file : files) {
+            InputStream in = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    content.write(buffer, 0, length);
+                }
+                requests.add(content.toString("UTF-8"));
+            } finally {
+                in.close();
+            }
+        }
+        return requests;
+    }
+}
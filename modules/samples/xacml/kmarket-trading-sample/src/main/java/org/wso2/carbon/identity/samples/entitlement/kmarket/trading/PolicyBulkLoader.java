@@ -0,0 +1,304 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a directory of policy files to the PDP in parallel.
+ *
+ * Each file is read and uploaded by one of a fixed number of threads, so reading and uploading overlap and at most
+ * that many uploads are in flight. The ids of the policies of the PDP are read once before the upload, so each
+ * policy is added or updated as needed. The SHA-256 hash of every uploaded policy is kept per server in a hash file
+ * in the policy directory; a policy whose content has not changed since the last upload to the same server, and
+ * which the PDP still has, is skipped. If the policy ids can not be read every policy is uploaded.
+ *
+ * Usage: PolicyBulkLoader [policy directory] [threads] [force]
+ * With force all policies are uploaded, e.g. after a policy was changed on the server.
+ */
+public class PolicyBulkLoader {
+
+    /**
+     * File in the policy directory keeping the hashes of the uploaded policies
+     */
+    public static final String HASH_FILE = ".policy-hashes";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final WSO2IdentityAgent agent;
+
+    private final int threads;
+
+    private final boolean force;
+
+    private final AtomicInteger uploaded = new AtomicInteger();
+
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * @param agent agent to upload with
+     * @param threads maximum number of files read and uploaded at the same time
+     * @param force upload policies even when they have not changed
+     */
+    public PolicyBulkLoader(WSO2IdentityAgent agent, int threads, boolean force) {
+        this.agent = agent;
+        this.threads = threads;
+        this.force = force;
+    }
+
+    public static void main(String[] args) {
+
+        String directory = args.length > 0 ? args[0] : System.getProperty("user.dir") + File.separator + "resources";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        boolean force = args.length > 2 && "force".equals(args[2]);
+
+        WSO2IdentityAgent agent = new WSO2IdentityAgent(Utils.loadConfigProperties());
+        try {
+            new PolicyBulkLoader(agent, threads, force).load(new File(directory));
+        } finally {
+            agent.close();
+        }
+    }
+
+    /**
+     * Upload all XML files of the directory and print a report
+     * @param policyDirectory directory of the policy files
+     */
+    public void load(File policyDirectory) {
+
+        File[] policyFiles = policyDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (policyFiles == null) {
+            System.err.println("Policy directory can not be read : " + policyDirectory);
+            return;
+        }
+
+        File hashFile = new File(policyDirectory, HASH_FILE);
+        final Properties previousHashes = loadHashes(hashFile);
+        final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+        final String hashPrefix = agent.getServerUrl() + "|";
+        // hashes of other servers are kept as they are
+        for (String key : previousHashes.stringPropertyNames()) {
+            if (!key.startsWith(hashPrefix)) {
+                hashes.put(key, previousHashes.getProperty(key));
+            }
+        }
+        final Set<String> policyIds = agent.getPolicyIds();
+
+        long begin = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> uploads = new ArrayList<Future<?>>(policyFiles.length);
+        try {
+            for (final File policyFile : policyFiles) {
+                uploads.add(executor.submit(new Runnable() {
+                    public void run() {
+                        load(policyFile, hashPrefix + policyFile.getName(), policyIds, previousHashes, hashes);
+                    }
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                try {
+                    upload.get();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Policy upload was interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsed = Math.max(System.nanoTime() - begin, 1);
+
+        saveHashes(hashFile, hashes);
+
+        System.out.println(String.format("%d policies : %d uploaded, %d unchanged, %d failed in %d ms " +
+                "(%.1f policies/s, %.1f KB/s read)", policyFiles.length, uploaded.get(), skipped.get(),
+                failed.get(), elapsed / 1000000, policyFiles.length * 1e9 / elapsed,
+                bytesRead.get() * 1e9 / 1024 / elapsed));
+    }
+
+    /**
+     * @param hashKey key of the hash of the file for the server
+     * @param policyIds ids of the policies of the PDP, or null if they are not known
+     */
+    private void load(File policyFile, String hashKey, Set<String> policyIds, Properties previousHashes,
+                      Map<String, String> hashes) {
+
+        String policy;
+        try {
+            policy = read(policyFile);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            System.err.println("Policy file can not be read : " + policyFile);
+            return;
+        }
+
+        String hash = hash(policy);
+        String policyId = getPolicyId(policy, policyFile.getName());
+        String previousHash = previousHashes.getProperty(hashKey);
+        boolean exists = policyIds != null ? policyIds.contains(policyId) : previousHash != null;
+        if (!force && policyIds != null && exists && hash.equals(previousHash)) {
+            hashes.put(hashKey, hash);
+            skipped.incrementAndGet();
+            return;
+        }
+
+        // a policy the PDP has is updated first, a new one is added first
+        if (agent.putPolicy(policyId, policy, exists)) {
+            hashes.put(hashKey, hash);
+            uploaded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Read the file as it is, keeping its line breaks
+     */
+    private String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                content.write(buffer, 0, length);
+            }
+            bytesRead.addAndGet(content.size());
+            return content.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return PolicyId or PolicySetId of the root element, or the default if there is none
+     */
+    private static String getPolicyId(String policy, String defaultId) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(policy));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        String id = reader.getAttributeValue(null, "PolicyId");
+                        if (id == null) {
+                            id = reader.getAttributeValue(null, "PolicySetId");
+                        }
+                        return id != null ? id : defaultId;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // the PDP reports the invalid policy on upload
+        }
+        return defaultId;
+    }
+
+    private static String hash(String policy) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(policy.getBytes("UTF-8"));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX[hash[i] & 0x0f];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static Properties loadHashes(File hashFile) {
+        Properties hashes = new Properties();
+        if (hashFile.exists()) {
+            try {
+                InputStream in = new FileInputStream(hashFile);
+                try {
+                    hashes.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Policy hashes can not be read, all policies are uploaded : " + hashFile);
+            }
+        }
+        return hashes;
+    }
+
+    private static void saveHashes(File hashFile, Map<String, String> hashes) {
+        Properties properties = new Properties();
+        properties.putAll(hashes);
+        try {
+            OutputStream out = new FileOutputStream(hashFile);
+            try {
+                properties.store(out, "SHA-256 of the policies uploaded by PolicyBulkLoader");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Policy hashes can not be saved : " + hashFile);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.wso2.carbon.identity.entitlement.stub.EntitlementServiceStub;
+
+/**
+ * Sends decisions to the EntitlementService admin service over SOAP
+ */
+public class SOAPDecisionTransport implements DecisionTransport {
+
+    private final ServiceStubPool<EntitlementServiceStub> entitlementStubs;
+
+    private final String authCookie;
+
+    /**
+     * @param entitlementStubs stubs with the endpoint and basic auth options set
+     * @param authCookie authenticated session cookie, or null
+     */
+    public SOAPDecisionTransport(ServiceStubPool<EntitlementServiceStub> entitlementStubs, String authCookie) {
+        this.entitlementStubs = entitlementStubs;
+        this.authCookie = authCookie;
+    }
+
+    public String getDecision(String xacmlRequest) throws Exception {
+
+        EntitlementServiceStub entitlementStub = entitlementStubs.lease();
+        try {
+
+             /**
+             * Setting a authenticated cookie that is received from Carbon server.
+             * If you have authenticated with Carbon server earlier, you can use that cookie, if
+             * it has not been expired
+             */
+            entitlementStub._getServiceClient().getOptions().setProperty(HTTPConstants.COOKIE_STRING, authCookie);
+            return entitlementStub.getDecision(xacmlRequest);
+        } finally {
+            entitlementStubs.release(entitlementStub);
+        }
+    }
+
+    public void close() {
+        entitlementStubs.clear();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Stub;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pool of Axis2 service stubs. A stub and its options are not thread safe, so each call leases a stub, uses it
+ * alone and gives it back. Stubs are created on demand and kept for reuse up to maxIdle; they share the
+ * configuration context and therefore the HTTP connections of the agent.
+ */
+public abstract class ServiceStubPool<T extends Stub> {
+
+    private final BlockingQueue<T> idleStubs;
+
+    /**
+     * @param maxIdle maximum number of stubs kept for reuse
+     */
+    public ServiceStubPool(int maxIdle) {
+        this.idleStubs = new LinkedBlockingQueue<T>(maxIdle);
+    }
+
+    /**
+     * @return a stub used by no other thread until it is released
+     * @throws AxisFault if a new stub can not be created
+     */
+    public T lease() throws AxisFault {
+        T stub = idleStubs.poll();
+        if (stub == null) {
+            stub = createStub();
+        }
+        return stub;
+    }
+
+    /**
+     * Give back a leased stub. It must not be used by the caller afterwards
+     * @param stub stub from lease
+     */
+    public void release(T stub) {
+        if (stub != null && !idleStubs.offer(stub)) {
+            cleanup(stub);
+        }
+    }
+
+    /**
+     * Drop the idle stubs
+     */
+    public void clear() {
+        T stub;
+        while ((stub = idleStubs.poll()) != null) {
+            cleanup(stub);
+        }
+    }
+
+    /**
+     * @return a new stub with its endpoint and options set
+     * @throws AxisFault if the stub can not be created
+     */
+    protected abstract T createStub() throws AxisFault;
+
+    private void cleanup(T stub) {
+        try {
+            stub._getServiceClient().cleanup();
+        } catch (AxisFault axisFault) {
+            axisFault.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TSSLTransportFactory;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand in for the decision endpoints of the Identity Server, answering every request with the same Permit
+ * response: the SOAP EntitlementService and the Thrift authenticator over HTTPS, and the Thrift entitlement
+ * service over SSL, both with the certificate of the sample key store. It lets DecisionTransportBenchmark measure the cost of the transports
+ * without the cost of policy evaluation.
+ */
+public class StubEntitlementServer {
+
+    static final String PERMIT_RESPONSE = "<Response xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\">" +
+            "<Result><Decision>Permit</Decision><Status><StatusCode " +
+            "Value=\"urn:oasis:names:tc:xacml:1.0:status:ok\"/></Status></Result></Response>";
+
+    static final String SESSION_ID = "stub-session";
+
+    private static final String SOAP_RESPONSE = "<?xml version='1.0' encoding='UTF-8'?>" +
+            "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>" +
+            "<ns:getDecisionResponse xmlns:ns=\"http://org.apache.axis2/xsd\"><ns:return>" +
+            PERMIT_RESPONSE.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;") +
+            "</ns:return></ns:getDecisionResponse></soapenv:Body></soapenv:Envelope>";
+
+    private final HttpsServer httpServer;
+
+    private final TServerSocket thriftServer;
+
+    private final ExecutorService workers;
+
+    /**
+     * @param httpsPort port of the SOAP service and the Thrift authenticator
+     * @param thriftPort port of the Thrift entitlement service
+     * @param keyStore key store of the SSL server certificate
+     * @param keyStorePassword password of the key store and its key
+     */
+    public StubEntitlementServer(int httpsPort, int thriftPort, String keyStore, String keyStorePassword)
+            throws IOException, GeneralSecurityException, TTransportException {
+
+        workers = Executors.newCachedThreadPool();
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        InputStream in = new FileInputStream(keyStore);
+        try {
+            store.load(in, keyStorePassword.toCharArray());
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(store, keyStorePassword.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        httpServer = HttpsServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), httpsPort), 50);
+        httpServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        httpServer.setExecutor(workers);
+        httpServer.createContext("/services/EntitlementService", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                consume(exchange.getRequestBody());
+                reply(exchange, "text/xml; charset=UTF-8", SOAP_RESPONSE.getBytes("UTF-8"));
+            }
+        });
+        httpServer.createContext("/thriftAuthenticator", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(exchange.getRequestBody(), out));
+                    serve(protocol, "authenticate", SESSION_ID);
+                } catch (TException e) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                reply(exchange, "application/x-thrift", out.toByteArray());
+            }
+        });
+
+        TSSLTransportFactory.TSSLTransportParameters parameters = new TSSLTransportFactory.TSSLTransportParameters();
+        parameters.setKeyStore(keyStore, keyStorePassword);
+        thriftServer = TSSLTransportFactory.getServerSocket(thriftPort, 0, InetAddress.getByName("localhost"),
+                parameters);
+    }
+
+    public void start() {
+
+        httpServer.start();
+        workers.execute(new Runnable() {
+            public void run() {
+                while (true) {
+                    final TTransport client;
+                    try {
+                        client = thriftServer.accept();
+                    } catch (TTransportException e) {
+                        // the server socket was closed
+                        return;
+                    }
+                    workers.execute(new Runnable() {
+                        public void run() {
+                            TProtocol protocol = new TBinaryProtocol(client);
+                            try {
+                                while (true) {
+                                    serve(protocol, "getDecision", PERMIT_RESPONSE);
+                                }
+                            } catch (TException e) {
+                                // the client closed the connection
+                            } finally {
+                                client.close();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        thriftServer.close();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Read one call of the method and reply with the result
+     */
+    private static void serve(TProtocol protocol, String method, String result) throws TException {
+
+        TMessage message = protocol.readMessageBegin();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            TProtocolUtil.skip(protocol, field.type);
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        protocol.readMessageEnd();
+
+        protocol.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+        protocol.writeStructBegin(new TStruct(method + "_result"));
+        protocol.writeFieldBegin(new TField("success", TType.STRING, (short) 0));
+        protocol.writeString(result);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        protocol.getTransport().flush();
+    }
+
+    private static void consume(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // the stub does not evaluate the request
+        }
+        in.close();
+    }
+
+    private static void reply(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
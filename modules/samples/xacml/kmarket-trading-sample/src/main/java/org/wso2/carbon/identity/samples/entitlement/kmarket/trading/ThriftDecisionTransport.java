@@ -0,0 +1,305 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.THttpClient;
+import org.apache.thrift.transport.TSSLTransportFactory;
+import org.apache.thrift.transport.TTransport;
+
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends decisions to the Thrift entitlement service of the Identity Server (ThirftBasedEntitlementConfig in
+ * identity.xml), which takes the XACML request without a SOAP envelope.
+ *
+ * A session id is obtained once from the Thrift authenticator servlet and shared by all connections. Connections
+ * are SSL sockets kept open in a pool of at most maxConnections; a connection failing on I/O is dropped and a new
+ * one is opened by the next call. When the server rejects the session the transport authenticates again and
+ * retries the decision once; other errors of the service are thrown unchanged.
+ */
+public class ThriftDecisionTransport implements DecisionTransport {
+
+    private final String host;
+
+    private final int port;
+
+    private final int timeout;
+
+    private final String trustStore;
+
+    private final String trustStorePassword;
+
+    private final String authenticatorUrl;
+
+    private final String userName;
+
+    private final String password;
+
+    private final BlockingQueue<Connection> idleConnections;
+
+    private final Semaphore connectionPermits;
+
+    private volatile String sessionId;
+
+    private volatile boolean closed;
+
+    /**
+     * @param host host of the Thrift entitlement service
+     * @param port ReceivePort of the Thrift entitlement service
+     * @param timeout socket timeout in milliseconds
+     * @param trustStore trust store with the server certificate
+     * @param trustStorePassword password of the trust store
+     * @param authenticatorUrl url of the Thrift authenticator, e.g. https://localhost:9443/thriftAuthenticator
+     * @param userName user name to authenticate with
+     * @param password password to authenticate with
+     * @param maxConnections maximum number of open connections
+     */
+    public ThriftDecisionTransport(String host, int port, int timeout, String trustStore, String trustStorePassword,
+                                   String authenticatorUrl, String userName, String password, int maxConnections) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.trustStore = trustStore;
+        this.trustStorePassword = trustStorePassword;
+        this.authenticatorUrl = authenticatorUrl;
+        this.userName = userName;
+        this.password = password;
+        this.idleConnections = new LinkedBlockingQueue<Connection>();
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    public String getDecision(String xacmlRequest) throws Exception {
+
+        if (!connectionPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TException("No Thrift connection available within " + timeout + " ms");
+        }
+        Connection connection = idleConnections.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection();
+            }
+            String session = getSessionId(null);
+            try {
+                return connection.call("getDecision", xacmlRequest, session);
+            } catch (ServiceException e) {
+                if (!isSessionRejected(e)) {
+                    throw e;
+                }
+                // the session expired on the server, get a new one and try once more
+                return connection.call("getDecision", xacmlRequest, getSessionId(session));
+            }
+        } catch (TException e) {
+            // the state of the connection is unknown after a transport or protocol failure
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+            throw e;
+        } finally {
+            if (connection != null) {
+                if (closed) {
+                    connection.close();
+                } else {
+                    idleConnections.offer(connection);
+                }
+            }
+            connectionPermits.release();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The entitlement service answers a call with an unknown or expired session id with an EntitlementException
+     * naming the session or the missing authentication. Any other EntitlementException, e.g. for a malformed request
+     * or a missing policy, is about the request and is not retried.
+     */
+    static boolean isSessionRejected(ServiceException e) {
+        String message = e.getMessage();
+        if (message == null) {
+            return false;
+        }
+        message = message.toLowerCase(Locale.ENGLISH);
+        return message.contains("session") || message.contains("unauthori") || message.contains("not authenticated");
+    }
+
+    /**
+     * @param rejectedSessionId session id the server did not accept, or null
+     * @return a session id other than the rejected one
+     */
+    private synchronized String getSessionId(String rejectedSessionId) throws Exception {
+
+        if (sessionId != null && !sessionId.equals(rejectedSessionId)) {
+            return sessionId;
+        }
+
+        THttpClient client = new THttpClient(authenticatorUrl);
+        client.setConnectTimeout(timeout);
+        client.setReadTimeout(timeout);
+        try {
+            sessionId = call(new TCompactProtocol(client), 1, "authenticate", userName, password);
+        } finally {
+            client.close();
+        }
+        return sessionId;
+    }
+
+    /**
+     * Call a Thrift method which takes two strings and returns a string or throws an exception with a message, as
+     * both getDecision of the entitlement service and authenticate of the authenticator service do
+     */
+    static String call(TProtocol protocol, int sequenceId, String method, String first, String second)
+            throws TException, ServiceException {
+
+        protocol.writeMessageBegin(new TMessage(method, TMessageType.CALL, sequenceId));
+        protocol.writeStructBegin(new TStruct(method + "_args"));
+        writeString(protocol, (short) 1, first);
+        writeString(protocol, (short) 2, second);
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        protocol.getTransport().flush();
+
+        TMessage message = protocol.readMessageBegin();
+        if (message.type == TMessageType.EXCEPTION) {
+            TApplicationException exception = TApplicationException.read(protocol);
+            protocol.readMessageEnd();
+            throw exception;
+        }
+        if (message.seqid != sequenceId) {
+            throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID,
+                    method + " failed: out of sequence response");
+        }
+
+        String success = null;
+        String failure = null;
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == 0 && field.type == TType.STRING) {
+                success = protocol.readString();
+            } else if (field.id == 1 && field.type == TType.STRUCT) {
+                failure = readExceptionMessage(protocol);
+            } else {
+                TProtocolUtil.skip(protocol, field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        protocol.readMessageEnd();
+
+        if (failure != null) {
+            throw new ServiceException(failure);
+        }
+        if (success == null) {
+            throw new TApplicationException(TApplicationException.MISSING_RESULT,
+                    method + " failed: unknown result");
+        }
+        return success;
+    }
+
+    private static void writeString(TProtocol protocol, short id, String value) throws TException {
+        protocol.writeFieldBegin(new TField("", TType.STRING, id));
+        protocol.writeString(value);
+        protocol.writeFieldEnd();
+    }
+
+    /**
+     * Read the message of EntitlementException or AuthenticationException, which have it as their first field
+     */
+    private static String readExceptionMessage(TProtocol protocol) throws TException {
+        String message = "";
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == 1 && field.type == TType.STRING) {
+                message = protocol.readString();
+            } else {
+                TProtocolUtil.skip(protocol, field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        return message;
+    }
+
+    /**
+     * Exception declared by a Thrift service method, e.g. an invalid session
+     */
+    static class ServiceException extends Exception {
+
+        ServiceException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Persistent SSL connection to the entitlement service, used by one thread at a time
+     */
+    private class Connection {
+
+        private final TTransport transport;
+
+        private final TProtocol protocol;
+
+        private int sequenceId;
+
+        private Connection() throws TException {
+            TSSLTransportFactory.TSSLTransportParameters parameters =
+                    new TSSLTransportFactory.TSSLTransportParameters();
+            parameters.setTrustStore(trustStore, trustStorePassword);
+            transport = TSSLTransportFactory.getClientSocket(host, port, timeout, parameters);
+            protocol = new TBinaryProtocol(transport);
+        }
+
+        private String call(String method, String first, String second) throws TException, ServiceException {
+            return ThriftDecisionTransport.call(protocol, ++sequenceId, method, first, second);
+        }
+
+        private void close() {
+            transport.close();
+        }
+    }
+}
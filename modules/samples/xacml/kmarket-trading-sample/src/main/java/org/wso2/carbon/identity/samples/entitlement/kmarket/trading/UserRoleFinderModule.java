@@ -0,0 +1,129 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.finder.AttributeFinderModule;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the roles of the subject from a fixed user to role mapping, in place of the user store of the Identity
+ * Server, for policies evaluated by OfflineDecisionTransport. The roles are returned for each of the given role
+ * attribute ids, e.g. http://wso2.org/claims/role used by the user store and http://kmarket.com/id/role used by the
+ * K-Market policies shipped with the Identity Server.
+ */
+public class UserRoleFinderModule extends AttributeFinderModule {
+
+    private static final String SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
+    private static final URI SUBJECT_ID = URI.create("urn:oasis:names:tc:xacml:1.0:subject:subject-id");
+
+    private static final URI STRING_TYPE = URI.create(StringAttribute.identifier);
+
+    private final Map<String, List<String>> userRoles;
+
+    private final Set<String> roleAttributeIds;
+
+    /**
+     * @param userRoles roles of each user name
+     * @param roleAttributeIds attribute ids the roles are returned for
+     */
+    public UserRoleFinderModule(Map<String, List<String>> userRoles, Collection<String> roleAttributeIds) {
+        this.userRoles = new HashMap<String, List<String>>(userRoles);
+        this.roleAttributeIds = new HashSet<String>();
+        for (String roleAttributeId : roleAttributeIds) {
+            if (roleAttributeId.trim().length() > 0) {
+                this.roleAttributeIds.add(roleAttributeId.trim());
+            }
+        }
+    }
+
+    /**
+     * Parse a user to role mapping like "bob:PRIMARY/gold,alice:PRIMARY/silver"; a user may be listed more than once
+     * @param mapping comma separated user:role pairs
+     * @return roles of each user
+     */
+    public static Map<String, List<String>> parseUserRoles(String mapping) {
+        Map<String, List<String>> userRoles = new HashMap<String, List<String>>();
+        for (String pair : mapping.split(",")) {
+            int separator = pair.indexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            String user = pair.substring(0, separator).trim();
+            List<String> roles = userRoles.get(user);
+            if (roles == null) {
+                roles = new ArrayList<String>();
+                userRoles.put(user, roles);
+            }
+            roles.add(pair.substring(separator + 1).trim());
+        }
+        return userRoles;
+    }
+
+    @Override
+    public boolean isDesignatorSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getSupportedCategories() {
+        return Collections.singleton(SUBJECT_CATEGORY);
+    }
+
+    @Override
+    public Set<String> getSupportedIds() {
+        return new HashSet<String>(roleAttributeIds);
+    }
+
+    @Override
+    public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                          EvaluationCtx context) {
+
+        List<AttributeValue> roles = new ArrayList<AttributeValue>();
+        if (roleAttributeIds.contains(attributeId.toString()) && SUBJECT_CATEGORY.equals(category.toString())) {
+            EvaluationResult subject = context.getAttribute(STRING_TYPE, SUBJECT_ID, issuer, category);
+            if (subject != null && subject.getAttributeValue() != null && subject.getAttributeValue().isBag()) {
+                Iterator iterator = ((BagAttribute) subject.getAttributeValue()).iterator();
+                while (iterator.hasNext()) {
+                    List<String> userRoleNames = userRoles.get(((AttributeValue) iterator.next()).encode());
+                    if (userRoleNames != null) {
+                        for (String role : userRoleNames) {
+                            roles.add(new StringAttribute(role));
+                        }
+                    }
+                }
+            }
+        }
+        return new EvaluationResult(new BagAttribute(attributeType, roles));
+    }
+}
@@ -18,12 +18,8 @@
 
 package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
 
-import org.wso2.carbon.identity.entitlement.stub.dto.PolicyDTO;
-
 import java.io.*;
-import java.util.HashSet;
 import java.util.Properties;
-import java.util.Set;
 
 /**
  *
@@ -79,8 +75,13 @@ public class Utils {
         return properties;
     }
 
+    /**
+     * Builds the request, with the user name and resource escaped
+     */
     public static String createXACMLRequest(String userName, String resource, int amount, int totalAmount){
 
+        String escapedUserName = escapeXML(userName);
+        String escapedResource = escapeXML(resource);
         return "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">\n" +
                 "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:action\">\n" +
                 "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\" IncludeInResult=\"false\">\n" +
@@ -89,12 +90,12 @@ public class Utils {
                 "</Attributes>\n" +
                 "<Attributes Category=\"urn:oasis:names:tc:xacml:1.0:subject-category:access-subject\">\n" +
                 "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\" IncludeInResult=\"false\">\n" +
-                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + userName +"</AttributeValue>\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + escapedUserName +"</AttributeValue>\n" +
                 "</Attribute>\n" +
                 "</Attributes>\n" +
                 "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\">\n" +
                 "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\" IncludeInResult=\"false\">\n" +
-                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + resource + "</AttributeValue>\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + escapedResource + "</AttributeValue>\n" +
                 "</Attribute>\n" +
                 "</Attributes>\n" +
                 "<Attributes Category=\"http://kmarket.com/category\">\n" +
@@ -109,36 +110,67 @@ public class Utils {
 
     }
 
-    public static void setup (WSO2IdentityAgent agent){
+    /**
+     * Escape the markup characters of a value. Characters XML 1.0 does not allow are replaced by U+FFFD.
+     * @return the value itself when nothing needs to be escaped
+     */
+    public static String escapeXML(String value) {
 
-        String policyDirectoryPath = System.getProperty("user.dir") + File.separator + "resources";
-        File rootDirectory = new File(policyDirectoryPath);
-        File[] policyFiles = rootDirectory.listFiles();
-        if(policyFiles != null) {
-            for(int i = 1; i < policyFiles.length + 1; i++){
-                if(policyFiles[i-1].exists() && policyFiles[i-1].isFile()){
-                    try{
-                        FileInputStream inputStream = new FileInputStream(policyFiles[i-1]);
-
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                        StringBuilder builder = new StringBuilder();
-                        String read = "";
-                        while (read != null){
-                            builder.append(read);
-                            read = reader.readLine();
-                        }
-
-                        PolicyDTO policyDTO = new PolicyDTO();
-                        policyDTO.setPolicy(builder.toString());
-                        agent.uploadPolicy(policyFiles[i-1].getName(), builder.toString());
-                        inputStream.close();
-                        reader.close();
-                    } catch (Exception e){
-                        e.printStackTrace();
-                    }
-                }
+        int count = value.length();
+        int plain = 0;
+        while (plain < count && isPlainXML(value.charAt(plain))) {
+            plain++;
+        }
+        if (plain == count) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(count + 16).append(value, 0, plain);
+        for (int i = plain; i < count; i++) {
+            char c = value.charAt(i);
+            if (isPlainXML(c)) {
+                builder.append(c);
+            } else if (c == '&') {
+                builder.append("&amp;");
+            } else if (c == '<') {
+                builder.append("&lt;");
+            } else if (c == '>') {
+                builder.append("&gt;");
+            } else if (c == '"') {
+                builder.append("&quot;");
+            } else if (Character.isHighSurrogate(c) && i + 1 < count &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                builder.append(c).append(value.charAt(++i));
+            } else {
+                builder.append('\ufffd');
             }
         }
+        return builder.toString();
+    }
+
+    /**
+     * @return whether the character is kept as it is by {@link #escapeXML(String)}
+     */
+    private static boolean isPlainXML(char c) {
+        if (c < 0x20) {
+            return c == '\t' || c == '\n' || c == '\r';
+        }
+        if (c < 0x80) {
+            return c != '&' && c != '<' && c != '>' && c != '"';
+        }
+        return c < Character.MIN_SURROGATE || (c > Character.MAX_SURROGATE && c < 0xfffe);
+    }
+
+    public static void setup (WSO2IdentityAgent agent, Properties properties){
+
+        int threads = 8;
+        String uploadThreads = properties.getProperty(Constants.AgentConstants.POLICY_UPLOAD_THREADS);
+        if(uploadThreads != null && uploadThreads.trim().length() > 0){
+            threads = Integer.parseInt(uploadThreads.trim());
+        }
+
+        String policyDirectoryPath = System.getProperty("user.dir") + File.separator + "resources";
+        // the setup uploads every policy, whatever was uploaded before from this directory
+        new PolicyBulkLoader(agent, threads, true).load(new File(policyDirectoryPath));
         agent.setUpUserAndRoles();
     }
 }
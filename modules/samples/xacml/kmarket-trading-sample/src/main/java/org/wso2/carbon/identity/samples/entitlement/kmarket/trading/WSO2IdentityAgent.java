@@ -24,14 +24,30 @@ import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.ConfigurationContextFactory;
 import org.apache.axis2.transport.http.HTTPConstants;
 import org.apache.axis2.transport.http.HttpTransportProperties;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.wso2.carbon.identity.entitlement.stub.EntitlementPolicyAdminServiceStub;
+import org.wso2.carbon.identity.entitlement.stub.EntitlementServiceCallbackHandler;
 import org.wso2.carbon.identity.entitlement.stub.EntitlementServiceStub;
 import org.wso2.carbon.identity.entitlement.stub.dto.PolicyDTO;
 import org.wso2.carbon.um.ws.api.stub.RemoteUserStoreManagerServiceStub;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -59,19 +75,54 @@ public class WSO2IdentityAgent {
     private static String authCookie = null;
 
     /**
-     *
+     * Stubs of the EntitlementService, leased by one thread per call
      */
-    private static EntitlementServiceStub entitlementStub = null;
+    private ServiceStubPool<EntitlementServiceStub> entitlementStubs;
 
     /**
-     *
+     * Stubs of the EntitlementPolicyAdminService, leased by one thread per call
      */
-    private static EntitlementPolicyAdminServiceStub entitlementPolicyServiceStub = null;
+    private ServiceStubPool<EntitlementPolicyAdminServiceStub> entitlementPolicyServiceStubs;
 
     /**
-     *
+     * Stubs of the RemoteUserStoreManagerService, leased by one thread per call
+     */
+    private ServiceStubPool<RemoteUserStoreManagerServiceStub> adminStubs;
+
+    /**
+     * Axis2 configuration context shared by all stubs
+     */
+    private ConfigurationContext configContext;
+
+    /**
+     * Persistent HTTP connections to the server, shared by all stubs
+     */
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    /**
+     * Decisions of the PDP, cleared when a policy is uploaded
+     */
+    private DecisionCache decisionCache;
+
+    /**
+     * Limits the asynchronous decisions waiting for the PDP
+     */
+    private Semaphore decisionsInFlight;
+
+    /**
+     * Time a decision may take, for both blocking and asynchronous calls
+     */
+    private long decisionTimeout;
+
+    /**
+     * Fails asynchronous decisions which are not answered in time
      */
-    private static RemoteUserStoreManagerServiceStub adminStub = null;
+    private ScheduledExecutorService timeoutScheduler;
+
+    /**
+     * Carries blocking decisions to the PDP, over SOAP or Thrift
+     */
+    private DecisionTransport decisionTransport;
 
     public WSO2IdentityAgent(Properties properties) {
 
@@ -110,6 +161,54 @@ public class WSO2IdentityAgent {
             trustStorePassword = "wso2carbon";
         }
 
+        int decisionCacheSize = 1000;
+        String cacheSize = properties.getProperty(Constants.AgentConstants.DECISION_CACHE_SIZE);
+        if(cacheSize != null && cacheSize.trim().length() > 0){
+            decisionCacheSize = Integer.parseInt(cacheSize.trim());
+        }
+
+        long decisionCacheTimeToLive = 60;
+        String cacheTimeToLive = properties.getProperty(Constants.AgentConstants.DECISION_CACHE_TIME_TO_LIVE);
+        if(cacheTimeToLive != null && cacheTimeToLive.trim().length() > 0){
+            decisionCacheTimeToLive = Long.parseLong(cacheTimeToLive.trim());
+        }
+
+        decisionCache = new DecisionCache(decisionCacheSize, decisionCacheTimeToLive * 1000);
+
+        int maxDecisionsInFlight = 100;
+        String decisionsInFlightProperty = properties.getProperty(Constants.AgentConstants.MAX_DECISIONS_IN_FLIGHT);
+        if(decisionsInFlightProperty != null && decisionsInFlightProperty.trim().length() > 0){
+            maxDecisionsInFlight = Integer.parseInt(decisionsInFlightProperty.trim());
+        }
+        decisionsInFlight = new Semaphore(maxDecisionsInFlight);
+
+        decisionTimeout = 30000;
+        String decisionTimeoutProperty = properties.getProperty(Constants.AgentConstants.DECISION_TIMEOUT);
+        if(decisionTimeoutProperty != null && decisionTimeoutProperty.trim().length() > 0){
+            decisionTimeout = Long.parseLong(decisionTimeoutProperty.trim());
+        }
+
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "kmarket-decision-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        int maxConnectionsPerHost = 20;
+        String connectionsPerHost = properties.getProperty(Constants.AgentConstants.MAX_CONNECTIONS_PER_HOST);
+        if(connectionsPerHost != null && connectionsPerHost.trim().length() > 0){
+            maxConnectionsPerHost = Integer.parseInt(connectionsPerHost.trim());
+        }
+
+        String transport = properties.getProperty(Constants.AgentConstants.DECISION_TRANSPORT, "soap").trim();
+        if(Constants.AgentConstants.THRIFT_TRANSPORT.equalsIgnoreCase(transport)){
+            decisionTransport = createThriftTransport(properties, trustStore, trustStorePassword);
+        } else if(Constants.AgentConstants.OFFLINE_TRANSPORT.equalsIgnoreCase(transport)){
+            decisionTransport = createOfflineTransport(properties);
+        }
+
         /**
          * Call to https://localhost:9443/services/   uses HTTPS protocol.
          * Therefore we to validate the server certificate or CA chain. The server certificate is looked up in the
@@ -121,11 +220,6 @@ public class WSO2IdentityAgent {
         System.setProperty("javax.net.ssl.trustStorePassword", trustStorePassword);
 
 
-        /**
-         * Axis2 configuration context
-         */
-        ConfigurationContext configContext;
-
         try {
 
             /**
@@ -134,44 +228,72 @@ public class WSO2IdentityAgent {
              */
             configContext = ConfigurationContextFactory.createConfigurationContextFromFileSystem( null, null);
 
+            /**
+             * All stubs send through one HTTP client with a multi threaded connection manager. Its HTTP/1.1
+             * connections are kept alive and reused by the next call, up to the maximum per host; the default
+             * of the connection manager is only two.
+             */
+            connectionManager = new MultiThreadedHttpConnectionManager();
+            connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+            connectionManager.getParams().setMaxTotalConnections(maxConnectionsPerHost);
+            configContext.setProperty(HTTPConstants.MULTITHREAD_HTTP_CONNECTION_MANAGER, connectionManager);
+            configContext.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, Boolean.TRUE);
+            configContext.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, new HttpClient(connectionManager));
+
             /**
              * Setting basic auth headers for authentication for carbon server
              */
-            HttpTransportProperties.Authenticator auth = new HttpTransportProperties.Authenticator();
+            final HttpTransportProperties.Authenticator auth = new HttpTransportProperties.Authenticator();
             auth.setUsername(serverUserName);
             auth.setPassword(serverPassword);
             auth.setPreemptiveAuthentication(true);
 
+            final ConfigurationContext stubConfigContext = configContext;
+            final String servicesUrl = serverUrl;
+
             /**
-             * create stub and service client for admin stub.
+             * create stub pool for admin stub.
              */
-            String serviceEndPoint = serverUrl + "RemoteUserStoreManagerService";
-            adminStub = new RemoteUserStoreManagerServiceStub(configContext, serviceEndPoint);
-            ServiceClient adminClient = adminStub._getServiceClient();
-            Options adminClientOption = adminClient.getOptions();
-            adminClientOption.setProperty(org.apache.axis2.transport.http.HTTPConstants.AUTHENTICATE, auth);
-            adminClientOption.setManageSession(true);
+            adminStubs = new ServiceStubPool<RemoteUserStoreManagerServiceStub>(maxConnectionsPerHost) {
+                protected RemoteUserStoreManagerServiceStub createStub() throws AxisFault {
+                    String serviceEndPoint = servicesUrl + "RemoteUserStoreManagerService";
+                    RemoteUserStoreManagerServiceStub adminStub =
+                            new RemoteUserStoreManagerServiceStub(stubConfigContext, serviceEndPoint);
+                    setClientOptions(adminStub._getServiceClient(), auth);
+                    return adminStub;
+                }
+            };
 
             /**
-             * create stub and service client for entitlement stub.
+             * create stub pool for entitlement stub.
              */
-            serviceEndPoint = serverUrl + "EntitlementService";
-            entitlementStub = new EntitlementServiceStub(configContext, serviceEndPoint);
-            ServiceClient entitlementClient = entitlementStub._getServiceClient();
-            Options entitlementClientOption = entitlementClient.getOptions();
-            entitlementClientOption.setProperty(org.apache.axis2.transport.http.HTTPConstants.AUTHENTICATE, auth);
-            entitlementClientOption.setManageSession(true);
-
+            entitlementStubs = new ServiceStubPool<EntitlementServiceStub>(maxConnectionsPerHost) {
+                protected EntitlementServiceStub createStub() throws AxisFault {
+                    String serviceEndPoint = servicesUrl + "EntitlementService";
+                    EntitlementServiceStub entitlementStub =
+                            new EntitlementServiceStub(stubConfigContext, serviceEndPoint);
+                    setClientOptions(entitlementStub._getServiceClient(), auth);
+                    entitlementStub._getServiceClient().getOptions().setTimeOutInMilliSeconds(decisionTimeout);
+                    return entitlementStub;
+                }
+            };
+            if(decisionTransport == null){
+                decisionTransport = new SOAPDecisionTransport(entitlementStubs, authCookie);
+            }
 
             /**
-             * create stub and service client for entitlement stub.
+             * create stub pool for entitlement policy admin stub.
              */
-            serviceEndPoint = serverUrl + "EntitlementPolicyAdminService";
-            entitlementPolicyServiceStub = new EntitlementPolicyAdminServiceStub(configContext, serviceEndPoint);
-            ServiceClient entitlementPolicyClient = entitlementPolicyServiceStub._getServiceClient();
-            Options entitlementPolicyClientOption = entitlementPolicyClient.getOptions();
-            entitlementPolicyClientOption.setProperty(org.apache.axis2.transport.http.HTTPConstants.AUTHENTICATE, auth);
-            entitlementPolicyClientOption.setManageSession(true);
+            entitlementPolicyServiceStubs =
+                    new ServiceStubPool<EntitlementPolicyAdminServiceStub>(maxConnectionsPerHost) {
+                protected EntitlementPolicyAdminServiceStub createStub() throws AxisFault {
+                    String serviceEndPoint = servicesUrl + "EntitlementPolicyAdminService";
+                    EntitlementPolicyAdminServiceStub entitlementPolicyServiceStub =
+                            new EntitlementPolicyAdminServiceStub(stubConfigContext, serviceEndPoint);
+                    setClientOptions(entitlementPolicyServiceStub._getServiceClient(), auth);
+                    return entitlementPolicyServiceStub;
+                }
+            };
         } catch (AxisFault axisFault) {
             axisFault.printStackTrace();
         }
@@ -179,11 +301,79 @@ public class WSO2IdentityAgent {
 
     }
 
+    private static void setClientOptions(ServiceClient client, HttpTransportProperties.Authenticator auth){
+        Options options = client.getOptions();
+        options.setProperty(org.apache.axis2.transport.http.HTTPConstants.AUTHENTICATE, auth);
+        options.setManageSession(true);
+    }
+
+    private ThriftDecisionTransport createThriftTransport(Properties properties, String trustStore,
+                                                         String trustStorePassword){
+
+        String thriftHost = properties.getProperty(Constants.AgentConstants.THRIFT_HOST);
+        if(thriftHost == null || thriftHost.trim().length() == 0){
+            try {
+                thriftHost = new URL(serverUrl).getHost();
+            } catch (MalformedURLException e) {
+                thriftHost = "localhost";
+            }
+        }
+
+        int thriftPort = 10500;
+        String port = properties.getProperty(Constants.AgentConstants.THRIFT_PORT);
+        if(port != null && port.trim().length() > 0){
+            thriftPort = Integer.parseInt(port.trim());
+        }
+
+        String authenticatorUrl = properties.getProperty(Constants.AgentConstants.THRIFT_AUTHENTICATOR_URL);
+        if(authenticatorUrl == null || authenticatorUrl.trim().length() == 0){
+            // the authenticator servlet is deployed next to the services of the server
+            authenticatorUrl = serverUrl.substring(0, serverUrl.length() - 1);
+            authenticatorUrl = authenticatorUrl.substring(0, authenticatorUrl.lastIndexOf('/') + 1) +
+                    "thriftAuthenticator";
+        }
+
+        int thriftConnections = 10;
+        String connections = properties.getProperty(Constants.AgentConstants.THRIFT_CONNECTIONS);
+        if(connections != null && connections.trim().length() > 0){
+            thriftConnections = Integer.parseInt(connections.trim());
+        }
+
+        return new ThriftDecisionTransport(thriftHost, thriftPort, (int) decisionTimeout, trustStore,
+                trustStorePassword, authenticatorUrl, serverUserName, serverPassword, thriftConnections);
+    }
+
+    private OfflineDecisionTransport createOfflineTransport(Properties properties){
+
+        String policyLocations = properties.getProperty(Constants.AgentConstants.OFFLINE_POLICY_LOCATIONS);
+        if(policyLocations == null || policyLocations.trim().length() == 0){
+            policyLocations = System.getProperty("user.dir") + File.separator + "resources";
+        }
+
+        String userRoles = properties.getProperty(Constants.AgentConstants.OFFLINE_USER_ROLES);
+        if(userRoles == null || userRoles.trim().length() == 0){
+            userRoles = Constants.AgentConstants.DEFAULT_OFFLINE_USER_ROLES;
+        }
+
+        String roleAttributeIds = properties.getProperty(Constants.AgentConstants.OFFLINE_ROLE_ATTRIBUTE_IDS);
+        if(roleAttributeIds == null || roleAttributeIds.trim().length() == 0){
+            roleAttributeIds = Constants.AgentConstants.DEFAULT_OFFLINE_ROLE_ATTRIBUTE_IDS;
+        }
+
+        OfflineDecisionTransport offlineTransport = new OfflineDecisionTransport(
+                Arrays.asList(policyLocations.split(",")), UserRoleFinderModule.parseUserRoles(userRoles),
+                Arrays.asList(roleAttributeIds.split(",")));
+        System.out.println(offlineTransport.getPolicyCount() + " policies are loaded in to the offline PDP");
+        return offlineTransport;
+    }
 
     public boolean authenticate(String userName, String password){
 
+        RemoteUserStoreManagerServiceStub adminStub = null;
         try {
 
+            adminStub = adminStubs.lease();
+
              /**
              * Setting a authenticated cookie that is received from Carbon server.
              * If you have authenticated with Carbon server earlier, you can use that cookie, if
@@ -194,6 +384,8 @@ public class WSO2IdentityAgent {
             
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            adminStubs.release(adminStub);
         }
 
         return false;
@@ -202,6 +394,84 @@ public class WSO2IdentityAgent {
 
     public String authorize(String xacmlRequest){
 
+        String cacheKey = decisionCache.getKey(xacmlRequest);
+        long cacheGeneration = decisionCache.getGeneration();
+        if(cacheKey != null){
+            String cachedDecision = decisionCache.get(cacheKey);
+            if(cachedDecision != null){
+                return cachedDecision;
+            }
+        }
+
+        try {
+
+            String decision = decisionTransport.getDecision(xacmlRequest);
+            if(cacheKey != null && decision != null){
+                decisionCache.put(cacheKey, decision, cacheGeneration);
+            }
+            return decision;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Request a decision without blocking the calling thread on the PDP.
+     *
+     * The decision is always requested over SOAP, whatever the configured decision transport is.
+     * The response is delivered through the returned future, on a transport thread of Axis2. When the maximum
+     * number of decisions is in flight the caller waits for a free slot, at most for the decision timeout. A
+     * decision not answered within the timeout fails with a TimeoutException. Its slot is given back only when
+     * Axis2 reports the end of the call, so the maximum also bounds the calls still open after a timeout.
+     *
+     * @param xacmlRequest XACML request
+     * @return future of the XACML response
+     */
+    public DecisionFuture authorizeAsync(String xacmlRequest){
+
+        final DecisionFuture future = new DecisionFuture();
+        final String cacheKey = decisionCache.getKey(xacmlRequest);
+        final long cacheGeneration = decisionCache.getGeneration();
+        if(cacheKey != null){
+            String cachedDecision = decisionCache.get(cacheKey);
+            if(cachedDecision != null){
+                future.complete(cachedDecision);
+                return future;
+            }
+        }
+
+        try {
+            if(!decisionsInFlight.tryAcquire(decisionTimeout, TimeUnit.MILLISECONDS)){
+                future.fail(new TimeoutException("Too many decisions in flight"));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.fail(e);
+            return future;
+        }
+
+        final EntitlementServiceStub entitlementStub;
+        try {
+            entitlementStub = entitlementStubs.lease();
+        } catch (AxisFault axisFault) {
+            decisionsInFlight.release();
+            future.fail(axisFault);
+            return future;
+        }
+
+        // fails the future only, the call keeps its stub and slot until Axis2 ends it
+        final ScheduledFuture<?> timeout = timeoutScheduler.schedule(new Runnable() {
+            public void run() {
+                future.fail(new TimeoutException("No decision within " + decisionTimeout + " ms"));
+            }
+        }, decisionTimeout, TimeUnit.MILLISECONDS);
+        final AtomicBoolean callEnded = new AtomicBoolean();
+
         try {
 
              /**
@@ -210,20 +480,51 @@ public class WSO2IdentityAgent {
              * it has not been expired
              */
             entitlementStub._getServiceClient().getOptions().setProperty(HTTPConstants.COOKIE_STRING, authCookie);
-            return entitlementStub.getDecision(xacmlRequest);
+            entitlementStub.startgetDecision(xacmlRequest, new EntitlementServiceCallbackHandler() {
+                @Override
+                public void receiveResultgetDecision(String result) {
+                    endAsyncCall(callEnded, entitlementStub, timeout);
+                    if(cacheKey != null && result != null){
+                        decisionCache.put(cacheKey, result, cacheGeneration);
+                    }
+                    future.complete(result);
+                }
 
+                @Override
+                public void receiveErrorgetDecision(Exception e) {
+                    endAsyncCall(callEnded, entitlementStub, timeout);
+                    future.fail(e);
+                }
+            });
         } catch (Exception e) {
-            e.printStackTrace();
+            endAsyncCall(callEnded, entitlementStub, timeout);
+            future.fail(e);
         }
 
-        return null;
+        return future;
+    }
 
+    /**
+     * Give back the stub and the in flight slot of an asynchronous decision whose call has ended, only once even if
+     * Axis2 reports the end of the call more than once
+     */
+    private void endAsyncCall(AtomicBoolean callEnded, EntitlementServiceStub entitlementStub,
+                              ScheduledFuture<?> timeout){
+
+        if(callEnded.compareAndSet(false, true)){
+            timeout.cancel(false);
+            entitlementStubs.release(entitlementStub);
+            decisionsInFlight.release();
+        }
     }
 
     public String uploadPolicy(String policyId, String policy){
 
+        EntitlementPolicyAdminServiceStub entitlementPolicyServiceStub = null;
         try {
 
+            entitlementPolicyServiceStub = entitlementPolicyServiceStubs.lease();
+
              /**
              * Setting a authenticated cookie that is received from Carbon server.
              * If you have authenticated with Carbon server earlier, you can use that cookie, if
@@ -240,20 +541,137 @@ public class WSO2IdentityAgent {
                 policyDTO.setPolicyId(policyId);
                 policyDTO.setPromote(true);
                 entitlementPolicyServiceStub.addPolicy(policyDTO);
+                // cached decisions may not hold under the new policy
+                decisionCache.clear();
                 System.out.println("Policy is added in to PDP successfully : " + policyId);
             }
         } catch (Exception e) {
             System.out.println("Error while adding policies. Samples may be failed");
             e.printStackTrace();
+        } finally {
+            entitlementPolicyServiceStubs.release(entitlementPolicyServiceStub);
         }
 
         return null;
     }
 
+    /**
+     * Add or update a policy without first asking the PDP whether it exists. The other operation is tried when the
+     * first one fails, so a wrong guess costs one more call.
+     * @param policyId id of the policy
+     * @param policy policy
+     * @param update true to try updating an existing policy first, false to try adding a new one first
+     * @return true if the policy was added or updated
+     */
+    public boolean putPolicy(String policyId, String policy, boolean update){
+
+        EntitlementPolicyAdminServiceStub entitlementPolicyServiceStub = null;
+        try {
+
+            entitlementPolicyServiceStub = entitlementPolicyServiceStubs.lease();
+            entitlementPolicyServiceStub._getServiceClient().getOptions().setProperty(HTTPConstants.COOKIE_STRING, authCookie);
+
+            PolicyDTO policyDTO = new PolicyDTO();
+            policyDTO.setPolicy(policy);
+            policyDTO.setPolicyId(policyId);
+            policyDTO.setPromote(true);
+            try {
+                if(update){
+                    entitlementPolicyServiceStub.updatePolicy(policyDTO);
+                } else {
+                    entitlementPolicyServiceStub.addPolicy(policyDTO);
+                }
+            } catch (Exception e) {
+                if(update){
+                    entitlementPolicyServiceStub.addPolicy(policyDTO);
+                } else {
+                    entitlementPolicyServiceStub.updatePolicy(policyDTO);
+                }
+            }
+            // cached decisions may not hold under the new policy
+            decisionCache.clear();
+            return true;
+        } catch (Exception e) {
+            System.out.println("Error while uploading policy : " + policyId);
+            e.printStackTrace();
+        } finally {
+            entitlementPolicyServiceStubs.release(entitlementPolicyServiceStub);
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the ids of all policies of the PDP with one call
+     * @return policy ids, or null if they could not be read
+     */
+    public Set<String> getPolicyIds(){
+
+        EntitlementPolicyAdminServiceStub entitlementPolicyServiceStub = null;
+        try {
+
+            entitlementPolicyServiceStub = entitlementPolicyServiceStubs.lease();
+            entitlementPolicyServiceStub._getServiceClient().getOptions().setProperty(HTTPConstants.COOKIE_STRING, authCookie);
+
+            String[] policyIds = entitlementPolicyServiceStub.getAllPolicyIds("*");
+            Set<String> ids = new HashSet<String>();
+            if(policyIds != null){
+                ids.addAll(Arrays.asList(policyIds));
+            }
+            return ids;
+        } catch (Exception e) {
+            System.out.println("Error while reading the policy ids of the PDP");
+            e.printStackTrace();
+        } finally {
+            entitlementPolicyServiceStubs.release(entitlementPolicyServiceStub);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return URL of the services of the server the agent talks to
+     */
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    /**
+     * Release the stubs and the connections of the agent
+     */
+    public void close() {
+        if(decisionTransport != null){
+            decisionTransport.close();
+        }
+        timeoutScheduler.shutdownNow();
+        if(entitlementStubs != null){
+            entitlementStubs.clear();
+            entitlementPolicyServiceStubs.clear();
+            adminStubs.clear();
+        }
+        if(connectionManager != null){
+            connectionManager.shutdown();
+        }
+        if(configContext != null){
+            try {
+                configContext.terminate();
+            } catch (AxisFault axisFault) {
+                axisFault.printStackTrace();
+            }
+        }
+    }
+
     public String setUpUserAndRoles(){
 
+        RemoteUserStoreManagerServiceStub adminStub = null;
         try {
 
+            adminStub = adminStubs.lease();
+
              /**
              * Setting a authenticated cookie that is received from Carbon server.
              * If you have authenticated with Carbon server earlier, you can use that cookie, if
@@ -284,6 +702,8 @@ public class WSO2IdentityAgent {
         } catch (Exception e) {
             System.out.println("Error while adding users and roles. Samples may be failed");
             e.printStackTrace();
+        } finally {
+            adminStubs.release(adminStub);
         }
 
         return null;
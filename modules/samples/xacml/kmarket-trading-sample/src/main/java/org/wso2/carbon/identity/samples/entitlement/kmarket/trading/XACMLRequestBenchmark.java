@@ -0,0 +1,144 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the time and the allocation per request of the plain string concatenation Utils.createXACMLRequest used
+ * before with its escaped concatenation, i.e. measures the cost of escaping the values.
+ *
+ * Usage: XACMLRequestBenchmark [iterations per round] [rounds]
+ * The first rounds warm up the JIT; the report is taken from the last round.
+ */
+public class XACMLRequestBenchmark {
+
+    private static final String[] USERS = {"bob", "alice", "peter"};
+
+    private static final String[] PRODUCTS = {"Food", "Drink", "Fruit", "Liquor", "Medicine"};
+
+    private static final String[] MODES = {"concatenation", "escaped concatenation"};
+
+    /**
+     * Values and their expected escaping
+     */
+    private static final String[][] ESCAPED_VALUES = {
+            {"Food", "Food"},
+            {"b&b <\"shop\">", "b&amp;b &lt;&quot;shop&quot;&gt;"},
+            {"caf\u00e9 \u20ac \ud83c\udf4e", "caf\u00e9 \u20ac \ud83c\udf4e"},
+            {"bad\u0001\ud800\uffff", "bad\ufffd\ufffd\ufffd"}};
+
+    /**
+     * Keeps the results alive, so the JIT can not drop the work
+     */
+    private static long sink;
+
+    public static void main(String[] args) {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String concatenated = createConcatenatedRequest("bob", "Food", 2, 40);
+        String escaped = Utils.createXACMLRequest("bob", "Food", 2, 40);
+        if (!concatenated.equals(escaped)) {
+            System.err.println("Requests differ :\n" + concatenated + "\n" + escaped);
+            System.exit(1);
+        }
+        for (String[] value : ESCAPED_VALUES) {
+            escaped = Utils.escapeXML(value[0]);
+            if (!value[1].equals(escaped)) {
+                System.err.println("Value " + value[0] + " escaped as " + escaped + " instead of " + value[1]);
+                System.exit(1);
+            }
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            for (int mode = 0; mode < MODES.length; mode++) {
+                long[] result = measure(mode, iterations);
+                if (round == rounds) {
+                    System.out.println(String.format("%-20s %8d ns/request %8s bytes/request", MODES[mode],
+                            result[0], result[1] < 0 ? "n/a" : String.valueOf(result[1])));
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long[] measure(int mode, int iterations) {
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String user = USERS[i % USERS.length];
+            String product = PRODUCTS[i % PRODUCTS.length];
+            int amount = i & 15;
+            if (mode == 0) {
+                sink += createConcatenatedRequest(user, product, amount, amount * 20).length();
+            } else {
+                sink += Utils.createXACMLRequest(user, product, amount, amount * 20).length();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocatedAfter = allocatedBytes();
+        return new long[]{elapsed / iterations,
+                allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / iterations};
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * The request as Utils.createXACMLRequest built it with string concatenation, without escaping
+     */
+    private static String createConcatenatedRequest(String userName, String resource, int amount, int totalAmount) {
+
+        return "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">\n" +
+                "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:action\">\n" +
+                "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\" IncludeInResult=\"false\">\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">buy</AttributeValue>\n" +
+                "</Attribute>\n" +
+                "</Attributes>\n" +
+                "<Attributes Category=\"urn:oasis:names:tc:xacml:1.0:subject-category:access-subject\">\n" +
+                "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\" IncludeInResult=\"false\">\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + userName +"</AttributeValue>\n" +
+                "</Attribute>\n" +
+                "</Attributes>\n" +
+                "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\">\n" +
+                "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\" IncludeInResult=\"false\">\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + resource + "</AttributeValue>\n" +
+                "</Attribute>\n" +
+                "</Attributes>\n" +
+                "<Attributes Category=\"http://kmarket.com/category\">\n" +
+                "<Attribute AttributeId=\"http://kmarket.com/id/amount\" IncludeInResult=\"false\">\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#integer\">" + amount + "</AttributeValue>\n" +
+                "</Attribute>\n" +
+                "<Attribute AttributeId=\"http://kmarket.com/id/totalAmount\" IncludeInResult=\"false\">\n" +
+                "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#integer\">" + totalAmount + "</AttributeValue>\n" +
+                "</Attribute>\n" +
+                "</Attributes>\n" +
+                "</Request>";
+    }
+}
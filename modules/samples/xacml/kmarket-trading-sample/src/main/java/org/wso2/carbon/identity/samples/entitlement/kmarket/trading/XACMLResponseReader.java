@@ -0,0 +1,210 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the results of a XACML response in a single StAX pass, without building a tree.
+ *
+ * Each call of nextResult reads only up to the end of the next Result, so responses with many results, like
+ * those of multiple decision requests, can be processed one result at a time. Elements are matched by local
+ * name, which covers both XACML 2.0 and 3.0 responses. Attributes and policy identifiers of the results are
+ * skipped.
+ */
+public class XACMLResponseReader {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final XMLStreamReader reader;
+
+    /**
+     * @param xacmlResponse XACML response
+     * @throws XMLStreamException if the response can not be read
+     */
+    public XACMLResponseReader(Reader xacmlResponse) throws XMLStreamException {
+        this.reader = XML_INPUT_FACTORY.createXMLStreamReader(xacmlResponse);
+    }
+
+    /**
+     * Read the first result of a response
+     * @param xacmlResponse XACML response
+     * @return first result, or null if the response has none
+     * @throws XMLStreamException if the response is not well formed
+     */
+    public static XACMLResult readFirstResult(String xacmlResponse) throws XMLStreamException {
+        XACMLResponseReader responseReader = new XACMLResponseReader(new StringReader(xacmlResponse));
+        try {
+            return responseReader.nextResult();
+        } finally {
+            responseReader.close();
+        }
+    }
+
+    /**
+     * Read all results of a response
+     * @param xacmlResponse XACML response
+     * @return results in document order
+     * @throws XMLStreamException if the response is not well formed
+     */
+    public static List<XACMLResult> readResults(String xacmlResponse) throws XMLStreamException {
+        List<XACMLResult> results = new ArrayList<XACMLResult>();
+        XACMLResponseReader responseReader = new XACMLResponseReader(new StringReader(xacmlResponse));
+        try {
+            XACMLResult result;
+            while ((result = responseReader.nextResult()) != null) {
+                results.add(result);
+            }
+        } finally {
+            responseReader.close();
+        }
+        return results;
+    }
+
+    /**
+     * @return next result, or null at the end of the response
+     * @throws XMLStreamException if the response is not well formed
+     */
+    public XACMLResult nextResult() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "Result".equals(reader.getLocalName())) {
+                return readResult();
+            }
+        }
+        return null;
+    }
+
+    public void close() throws XMLStreamException {
+        reader.close();
+    }
+
+    /**
+     * Read from the start to the end of a Result element
+     */
+    private XACMLResult readResult() throws XMLStreamException {
+
+        String decision = null;
+        String statusCode = null;
+        String statusMessage = null;
+        List<XACMLResult.Obligation> obligations = new ArrayList<XACMLResult.Obligation>();
+        List<XACMLResult.Obligation> advice = new ArrayList<XACMLResult.Obligation>();
+
+        String obligationId = null;
+        List<XACMLResult.AttributeAssignment> assignments = null;
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                String name = reader.getLocalName();
+                if ("Obligation".equals(name) && assignments != null) {
+                    obligations.add(new XACMLResult.Obligation(obligationId, assignments));
+                    assignments = null;
+                } else if ("Advice".equals(name) && assignments != null) {
+                    advice.add(new XACMLResult.Obligation(obligationId, assignments));
+                    assignments = null;
+                }
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = reader.getLocalName();
+            if ("Decision".equals(name)) {
+                decision = readText().trim();
+            } else if ("StatusCode".equals(name)) {
+                if (statusCode == null) {
+                    // the first code is the top level one, nested codes only refine it
+                    statusCode = reader.getAttributeValue(null, "Value");
+                }
+                depth++;
+            } else if ("StatusMessage".equals(name)) {
+                statusMessage = readText();
+            } else if ("Obligation".equals(name)) {
+                obligationId = reader.getAttributeValue(null, "ObligationId");
+                assignments = new ArrayList<XACMLResult.AttributeAssignment>();
+                depth++;
+            } else if ("Advice".equals(name)) {
+                obligationId = reader.getAttributeValue(null, "AdviceId");
+                assignments = new ArrayList<XACMLResult.AttributeAssignment>();
+                depth++;
+            } else if ("AttributeAssignment".equals(name)) {
+                String attributeId = reader.getAttributeValue(null, "AttributeId");
+                String category = reader.getAttributeValue(null, "Category");
+                String dataType = reader.getAttributeValue(null, "DataType");
+                String value = readText();
+                if (assignments != null) {
+                    assignments.add(new XACMLResult.AttributeAssignment(attributeId, category, dataType, value));
+                }
+            } else if ("Status".equals(name) || "Obligations".equals(name) || "AssociatedAdvice".equals(name)) {
+                depth++;
+            } else {
+                // StatusDetail, Attributes, PolicyIdentifierList and unknown content
+                skipElement();
+            }
+        }
+
+        return new XACMLResult(decision, statusCode, statusMessage, obligations, advice);
+    }
+
+    /**
+     * Read the text content of the current element up to its end, including the text of any child elements
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+                    event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
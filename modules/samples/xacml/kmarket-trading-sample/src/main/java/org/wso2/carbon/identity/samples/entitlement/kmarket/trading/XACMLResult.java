@@ -0,0 +1,181 @@
+/*
+*  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One Result of a XACML response: the decision, the status and the obligations and advice to fulfill.
+ * Instances are immutable.
+ */
+public class XACMLResult {
+
+    public static final String PERMIT = "Permit";
+
+    public static final String DENY = "Deny";
+
+    public static final String NOT_APPLICABLE = "NotApplicable";
+
+    public static final String INDETERMINATE = "Indeterminate";
+
+    public static final String STATUS_OK = "urn:oasis:names:tc:xacml:1.0:status:ok";
+
+    private final String decision;
+
+    private final String statusCode;
+
+    private final String statusMessage;
+
+    private final List<Obligation> obligations;
+
+    private final List<Obligation> advice;
+
+    public XACMLResult(String decision, String statusCode, String statusMessage, List<Obligation> obligations,
+                       List<Obligation> advice) {
+        this.decision = decision;
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+        this.obligations = unmodifiableCopy(obligations);
+        this.advice = unmodifiableCopy(advice);
+    }
+
+    /**
+     * @return Permit, Deny, NotApplicable or Indeterminate as sent by the PDP, or null if there was no decision
+     */
+    public String getDecision() {
+        return decision;
+    }
+
+    public boolean isPermit() {
+        return PERMIT.equals(decision);
+    }
+
+    public boolean isDeny() {
+        return DENY.equals(decision);
+    }
+
+    /**
+     * @return value of the top level status code, or null if the result has no status
+     */
+    public String getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public List<Obligation> getObligations() {
+        return obligations;
+    }
+
+    public List<Obligation> getAdvice() {
+        return advice;
+    }
+
+    @Override
+    public String toString() {
+        return "XACMLResult{decision=" + decision + ", statusCode=" + statusCode + ", statusMessage=" +
+                statusMessage + ", obligations=" + obligations + ", advice=" + advice + "}";
+    }
+
+    private static <T> List<T> unmodifiableCopy(List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<T>(list));
+    }
+
+    /**
+     * Obligation or advice of a result, with its attribute assignments
+     */
+    public static class Obligation {
+
+        private final String id;
+
+        private final List<AttributeAssignment> assignments;
+
+        public Obligation(String id, List<AttributeAssignment> assignments) {
+            this.id = id;
+            this.assignments = unmodifiableCopy(assignments);
+        }
+
+        /**
+         * @return ObligationId or AdviceId
+         */
+        public String getId() {
+            return id;
+        }
+
+        public List<AttributeAssignment> getAssignments() {
+            return assignments;
+        }
+
+        @Override
+        public String toString() {
+            return id + assignments;
+        }
+    }
+
+    /**
+     * Attribute assignment of an obligation or advice
+     */
+    public static class AttributeAssignment {
+
+        private final String attributeId;
+
+        private final String category;
+
+        private final String dataType;
+
+        private final String value;
+
+        public AttributeAssignment(String attributeId, String category, String dataType, String value) {
+            this.attributeId = attributeId;
+            this.category = category;
+            this.dataType = dataType;
+            this.value = value;
+        }
+
+        public String getAttributeId() {
+            return attributeId;
+        }
+
+        /**
+         * @return category of the attribute, or null if none is given
+         */
+        public String getCategory() {
+            return category;
+        }
+
+        public String getDataType() {
+            return dataType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return attributeId + "=" + value;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ *  Copyright (c) WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.samples.entitlement.kmarket.trading;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TSSLTransportFactory;
+import org.wso2.carbon.identity.entitlement.thrift.AuthenticationException;
+import org.wso2.carbon.identity.entitlement.thrift.AuthenticatorService;
+import org.wso2.carbon.identity.entitlement.thrift.EntitlementException;
+import org.wso2.carbon.identity.entitlement.thrift.EntitlementService;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Round trip test of ThriftDecisionTransport against the entitlement and authenticator services generated from the
+ * entitlement Thrift IDL of the Identity Server, i.e. the EntitlementService and AuthenticatorService classes of
+ * org.wso2.carbon.identity.entitlement. The services are served as the server serves them: the entitlement service
+ * over an SSL socket with the binary protocol and the authenticator over HTTPS with the compact protocol. The
+ * messages the transport writes and reads by hand must therefore match the generated code field for field.
+ *
+ * Usage: ThriftDecisionTransportRoundTripTest [https port] [thrift port]
+ * Run it from the sample directory, the sample key store is used by both the services and the transport.
+ * Exits with status 1 on the first failure.
+ */
+public class ThriftDecisionTransportRoundTripTest {
+
+    private static final String USER_NAME = "admin";
+
+    private static final String PASSWORD = "admin";
+
+    private static final String KEY_STORE_PASSWORD = "wso2carbon";
+
+    // requests holding it are answered with an EntitlementException, as the PDP does for a broken request
+    private static final String REJECTED_MARKER = "reject-me";
+
+    private static final int THREADS = 8;
+
+    private static final int REQUESTS_PER_THREAD = 250;
+
+    private static final int CONNECTIONS = 4;
+
+    private final AtomicInteger authentications = new AtomicInteger();
+
+    private final AtomicInteger rejectedCalls = new AtomicInteger();
+
+    private final AtomicInteger decisions = new AtomicInteger();
+
+    private final AtomicReference<String> lastRequest = new AtomicReference<String>();
+
+    private volatile String validSession;
+
+    private HttpsServer authenticatorServer;
+
+    private TServer entitlementServer;
+
+    private ExecutorService workers;
+
+    public static void main(String[] args) throws Exception {
+
+        int httpsPort = args.length > 0 ? Integer.parseInt(args[0]) : 19444;
+        int thriftPort = args.length > 1 ? Integer.parseInt(args[1]) : 20501;
+        String keyStore = new File("src" + File.separator + "main" + File.separator + "resources" +
+                File.separator + "wso2carbon.jks").getCanonicalPath();
+
+        // the authenticator is called over HTTPS with the trust store of the JVM, as WSO2IdentityAgent sets it
+        System.setProperty("javax.net.ssl.trustStore", keyStore);
+        System.setProperty("javax.net.ssl.trustStorePassword", KEY_STORE_PASSWORD);
+
+        ThriftDecisionTransportRoundTripTest test = new ThriftDecisionTransportRoundTripTest();
+        test.start(httpsPort, thriftPort, keyStore);
+        String authenticatorUrl = "https://localhost:" + httpsPort + "/thriftAuthenticator";
+        int status = 0;
+        try {
+            test.testDecision(new ThriftDecisionTransport("localhost", thriftPort, 10000, keyStore,
+                    KEY_STORE_PASSWORD, authenticatorUrl, USER_NAME, PASSWORD, CONNECTIONS));
+            test.testWrongPassword(new ThriftDecisionTransport("localhost", thriftPort, 10000, keyStore,
+                    KEY_STORE_PASSWORD, authenticatorUrl, USER_NAME, "wrong", CONNECTIONS));
+            System.out.println("PASSED");
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            status = 1;
+        } catch (Exception e) {
+            System.out.println("FAILED: " + e);
+            status = 1;
+        } finally {
+            test.stop();
+        }
+        // the worker threads of the Thrift server are not daemons
+        System.exit(status);
+    }
+
+    private void testDecision(final ThriftDecisionTransport transport) throws Exception {
+
+        try {
+            // XML and non ASCII characters must survive both protocols unchanged
+            String request = Utils.createXACMLRequest("böb & åsa", "Food <fresh>", 2, 40);
+            String response = transport.getDecision(request);
+            check(expectedResponse(request).equals(response), "unexpected decision response " + response);
+            check(request.equals(lastRequest.get()), "the service received another request than was sent");
+            check(authentications.get() == 1, "expected one authentication, was " + authentications.get());
+
+            transport.getDecision(request);
+            check(authentications.get() == 1, "the session id was not reused");
+
+            // the session expires on the server, the transport has to authenticate again and retry
+            validSession = null;
+            response = transport.getDecision(request);
+            check(expectedResponse(request).equals(response),
+                    "unexpected decision response after the session expired " + response);
+            check(authentications.get() == 2, "expected a new authentication after the session expired");
+
+            String rejected = Utils.createXACMLRequest(REJECTED_MARKER, "Food", 1, 1);
+            try {
+                transport.getDecision(rejected);
+                check(false, "a rejected request returned a decision");
+            } catch (ThriftDecisionTransport.ServiceException e) {
+                check(("Rejected " + REJECTED_MARKER).equals(e.getMessage()),
+                        "the message of the EntitlementException was lost: " + e.getMessage());
+            }
+            check(rejectedCalls.get() == 1, "a rejected request was retried");
+            check(authentications.get() == 2, "a rejected request caused a new authentication");
+            // the connection stays usable after a declared exception
+            response = transport.getDecision(request);
+            check(expectedResponse(request).equals(response),
+                    "unexpected decision response after a rejected request " + response);
+
+            testConcurrentDecisions(transport);
+        } finally {
+            transport.close();
+        }
+    }
+
+    private void testConcurrentDecisions(final ThriftDecisionTransport transport) throws InterruptedException {
+
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        int before = decisions.get();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < REQUESTS_PER_THREAD && failure.get() == null; i++) {
+                            String request = Utils.createXACMLRequest("user" + thread, "Food", i, i * 10);
+                            String response = transport.getDecision(request);
+                            if (!expectedResponse(request).equals(response)) {
+                                failure.compareAndSet(null, "thread " + thread + " got the response " + response);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, "thread " + thread + " failed: " + e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        check(failure.get() == null, failure.get());
+        check(decisions.get() - before == THREADS * REQUESTS_PER_THREAD,
+                "expected " + THREADS * REQUESTS_PER_THREAD + " decisions, the service made " +
+                        (decisions.get() - before));
+    }
+
+    private void testWrongPassword(ThriftDecisionTransport transport) throws Exception {
+
+        try {
+            transport.getDecision(Utils.createXACMLRequest("bob", "Food", 1, 1));
+            check(false, "a decision was returned for a wrong password");
+        } catch (ThriftDecisionTransport.ServiceException e) {
+            check(("Authentication failed for " + USER_NAME).equals(e.getMessage()),
+                    "the message of the AuthenticationException was lost: " + e.getMessage());
+        } finally {
+            transport.close();
+        }
+    }
+
+    private String expectedResponse(String request) {
+        return "Permit for " + validSession + " of " + request;
+    }
+
+    /**
+     * Implementation of the getDecision method of the generated entitlement service
+     */
+    private String getDecision(String request, String sessionId) throws EntitlementException {
+
+        if (sessionId == null || !sessionId.equals(validSession)) {
+            throw new EntitlementException("Invalid session id " + sessionId);
+        }
+        if (request.contains(REJECTED_MARKER)) {
+            rejectedCalls.incrementAndGet();
+            throw new EntitlementException("Rejected " + REJECTED_MARKER);
+        }
+        lastRequest.set(request);
+        decisions.incrementAndGet();
+        return "Permit for " + sessionId + " of " + request;
+    }
+
+    /**
+     * Implementation of the authenticate method of the generated authenticator service
+     */
+    private String authenticate(String userName, String password) throws AuthenticationException {
+
+        if (!USER_NAME.equals(userName) || !PASSWORD.equals(password)) {
+            throw new AuthenticationException("Authentication failed for " + userName);
+        }
+        validSession = "session-" + authentications.incrementAndGet();
+        return validSession;
+    }
+
+    private void start(int httpsPort, int thriftPort, String keyStore) throws Exception {
+
+        workers = Executors.newCachedThreadPool();
+
+        final TProcessor authenticatorProcessor = new AuthenticatorService.Processor(
+                service(AuthenticatorService.Iface.class));
+        authenticatorServer = HttpsServer.create(new InetSocketAddress(InetAddress.getByName("localhost"),
+                httpsPort), 50);
+        authenticatorServer.setHttpsConfigurator(new HttpsConfigurator(sslContext(keyStore)));
+        authenticatorServer.setExecutor(workers);
+        authenticatorServer.createContext("/thriftAuthenticator", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // as the TServlet of the authenticator does, with the compact protocol
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(exchange.getRequestBody(),
+                            out));
+                    authenticatorProcessor.process(protocol, protocol);
+                } catch (TException e) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/x-thrift");
+                exchange.sendResponseHeaders(200, out.size());
+                OutputStream body = exchange.getResponseBody();
+                out.writeTo(body);
+                body.close();
+            }
+        });
+        authenticatorServer.start();
+
+        TSSLTransportFactory.TSSLTransportParameters parameters = new TSSLTransportFactory.TSSLTransportParameters();
+        parameters.setKeyStore(keyStore, KEY_STORE_PASSWORD);
+        entitlementServer = new TThreadPoolServer(new TThreadPoolServer.Args(
+                TSSLTransportFactory.getServerSocket(thriftPort, 0, InetAddress.getByName("localhost"), parameters))
+                .processor(new EntitlementService.Processor(service(EntitlementService.Iface.class))));
+        workers.execute(new Runnable() {
+            public void run() {
+                entitlementServer.serve();
+            }
+        });
+        while (!entitlementServer.isServing()) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void stop() {
+        authenticatorServer.stop(0);
+        entitlementServer.stop();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Implement a generated service interface with the methods of this test. Only the methods the transport calls
+     * are implemented, the others fail.
+     */
+    private <T> T service(Class<T> serviceInterface) {
+
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+                new Class<?>[]{serviceInterface}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getDecision".equals(method.getName())) {
+                            return getDecision((String) args[0], (String) args[1]);
+                        } else if ("authenticate".equals(method.getName())) {
+                            return authenticate((String) args[0], (String) args[1]);
+                        } else if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(ThriftDecisionTransportRoundTripTest.this, args);
+                        }
+                        throw new UnsupportedOperationException(method.getName() + " is not used by the transport");
+                    }
+                }));
+    }
+
+    private static SSLContext sslContext(String keyStore) throws Exception {
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        InputStream in = new FileInputStream(keyStore);
+        try {
+            store.load(in, KEY_STORE_PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(store, KEY_STORE_PASSWORD.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}